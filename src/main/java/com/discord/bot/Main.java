@@ -3,16 +3,18 @@ package com.discord.bot;
 import io.github.cdimascio.dotenv.Dotenv;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
-import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
-import net.dv8tion.jda.api.hooks.ListenerAdapter;
 import net.dv8tion.jda.api.requests.GatewayIntent;
+import com.discord.bot.handlers.AttachmentIndex;
 import com.discord.bot.handlers.CommandLoader;
 import com.discord.bot.handlers.EventLoader;
-import com.discord.bot.handlers.DownloaderHandler;
-import com.discord.bot.handlers.YtdlHandler;
-import com.discord.bot.handlers.TwitterHandler;
-import com.discord.bot.handlers.AiHandler;
+import com.discord.bot.handlers.DownloadJournal;
+import com.discord.bot.handlers.HttpHandler;
+import com.discord.bot.handlers.MediaCache;
 import com.discord.bot.handlers.QuoteHandler;
+import com.discord.bot.handlers.StallWatchdog;
+import com.discord.bot.handlers.VirtualThreadEventManager;
+import com.discord.bot.handlers.WatchedEventManager;
+import com.discord.bot.utils.Settings;
 import com.discord.bot.events.InteractionCreate;
 import com.discord.bot.events.Ready;
 import com.discord.bot.events.MessageCreate;
@@ -25,7 +27,7 @@ import java.util.Map;
 /**
  * Main entry point for the Discord bot.
  */
-public class Main extends ListenerAdapter {
+public class Main {
     private static JDA jda;
     public static Map<String, Object> commands = new HashMap<>();
 
@@ -41,25 +43,28 @@ public class Main extends ListenerAdapter {
             }
 
             // Create JDA instance with intents
-            jda = JDABuilder.createDefault(token)
+            JDABuilder builder = JDABuilder.createDefault(token)
                     .enableIntents(
                         GatewayIntent.GUILD_MESSAGES,
                         GatewayIntent.MESSAGE_CONTENT,
                         GatewayIntent.GUILD_MEMBERS
                     )
                     .addEventListeners(
-                        new Main(),
                         new InteractionCreate(),
                         new Ready(),
                         new MessageCreate(),
                         new MessageDelete(),
                         new MessageUpdate()
-                    )
-                    .build();
+                    );
+
+            // Run listeners on virtual threads unless turned off; both watch for stalls
+            builder.setEventManager(Settings.getBoolean("EVENT_VIRTUAL_THREADS", true)
+                    ? new VirtualThreadEventManager()
+                    : new WatchedEventManager());
+            jda = builder.build();
 
-            // Load events and commands
+            // Load events
             EventLoader.loadEvents(jda);
-            CommandLoader.loadCommands(jda);
 
             // Initialize quote scheduler
             QuoteHandler.scheduleQOTD(jda);
@@ -68,10 +73,23 @@ public class Main extends ListenerAdapter {
             jda.awaitReady();
             System.out.println("Bot siap! Login sebagai " + jda.getSelfUser().getAsTag());
 
+            // Push slash commands if they changed; dev guilds need the guild cache
+            CommandLoader.loadCommands(jda);
+
+            // Flag listeners and commands that hold their thread too long
+            StallWatchdog.start(jda);
+
+            // Finish downloads cut off by the last restart
+            DownloadJournal.resumeAll(jda);
+
             // Add shutdown hook for graceful shutdown
             Runtime.getRuntime().addShutdownHook(new Thread(() -> {
                 System.out.println("Shutting down bot...");
                 QuoteHandler.shutdown();
+                DownloadJournal.shutdown();
+                MediaCache.flush();
+                AttachmentIndex.flush();
+                HttpHandler.shutdown();
                 jda.shutdown();
             }));
 
@@ -81,40 +99,6 @@ public class Main extends ListenerAdapter {
         }
     }
 
-    /**
-     * Handles prefix-based commands from messages.
-     */
-    @Override
-    public void onMessageReceived(MessageReceivedEvent event) {
-        //skip bot messages : if (message.author.bot) return;
-        if (event.getAuthor().isBot()) return;
-
-        String content = event.getMessage().getContentDisplay();
-
-        //downloader commands
-        if (content.startsWith("f.x")) {
-            TwitterHandler.handleX(event);
-        } else if (content.startsWith("f.ig")) {
-            DownloaderHandler.handleIg(event);
-        } else if (content.startsWith("f.fb")) {
-            DownloaderHandler.handleFb(event);
-        } else if (content.startsWith("f.tt")) {
-            DownloaderHandler.handleTt(event);
-        } else if (content.startsWith("f.yt")) {
-            YtdlHandler.handleYtDownload(event);
-        }
-        // AI commands - handled by AiHandler
-        // f.geminipropreview, f.geminipro, f.geminiflash, f.llama, f.deepseek-r1, f.ai
-        else if (content.startsWith("f.geminipropreview") ||
-                 content.startsWith("f.geminipro") ||
-                 content.startsWith("f.geminiflash") ||
-                 content.startsWith("f.llama") ||
-                 content.startsWith("f.deepseek-r1") ||
-                 content.trim().equals("f.ai")) {
-            AiHandler.handleAiChat(event);
-        }
-    }
-
     /**
      * Gets the JDA instance
      */
@@ -6,10 +6,9 @@ import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
+import com.discord.bot.handlers.HttpHandler;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -42,7 +41,7 @@ public class Adzan {
         interaction.deferReply().queue();
         
         CompletableFuture.runAsync(() -> {
-            try (CloseableHttpClient client = HttpClients.createDefault()) {
+            try {
                 String url = "http://api.aladhan.com/v1/timingsByCity?city=" + 
                     URLEncoder.encode(city, StandardCharsets.UTF_8) + 
                     "&country=" + URLEncoder.encode(country, StandardCharsets.UTF_8) + 
@@ -50,7 +49,7 @@ public class Adzan {
                 
                 HttpGet request = new HttpGet(url);
                 
-                try (ClassicHttpResponse response = client.execute(request)) {
+                try (ClassicHttpResponse response = HttpHandler.getClient().execute(request)) {
                     String jsonResponse = EntityUtils.toString(response.getEntity());
                     JsonNode data = objectMapper.readTree(jsonResponse);
                     
@@ -9,10 +9,10 @@ import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import com.discord.bot.handlers.AiChatState;
 import com.discord.bot.handlers.AiHandler;
+import com.discord.bot.handlers.HttpHandler;
 import io.github.cdimascio.dotenv.Dotenv;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ContentType;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import org.apache.hc.core5.http.io.entity.StringEntity;
@@ -175,36 +175,34 @@ public class Aichat {
         var part = parts.addObject();
         part.put("text", prompt);
 
-        try (var client = HttpClients.createDefault()) {
-            var request = new HttpPost(apiUrl);
-            request.setHeader("Content-Type", "application/json");
-            request.setEntity(new StringEntity(
-                    objectMapper.writeValueAsString(requestBody),
-                    ContentType.APPLICATION_JSON
-            ));
+        var request = new HttpPost(apiUrl);
+        request.setHeader("Content-Type", "application/json");
+        request.setEntity(new StringEntity(
+                objectMapper.writeValueAsString(requestBody),
+                ContentType.APPLICATION_JSON
+        ));
 
-            try (var response = client.execute(request)) {
-                String jsonResponse = EntityUtils.toString(response.getEntity());
-                var responseJson = objectMapper.readTree(jsonResponse);
+        try (var response = HttpHandler.getClient().execute(request)) {
+            String jsonResponse = EntityUtils.toString(response.getEntity());
+            var responseJson = objectMapper.readTree(jsonResponse);
 
-                if (responseJson.has("error")) {
-                    throw new Exception(responseJson.get("error").get("message").asText());
-                }
+            if (responseJson.has("error")) {
+                throw new Exception(responseJson.get("error").get("message").asText());
+            }
 
-                var candidates = responseJson.get("candidates");
-                if (candidates != null && candidates.isArray() && !candidates.isEmpty()) {
-                    var firstCandidate = candidates.get(0);
-                    var contentNode = firstCandidate.get("content");
-                    if (contentNode != null) {
-                        var partsNode = contentNode.get("parts");
-                        if (partsNode != null && partsNode.isArray() && !partsNode.isEmpty()) {
-                            return partsNode.get(0).get("text").asText();
-                        }
+            var candidates = responseJson.get("candidates");
+            if (candidates != null && candidates.isArray() && !candidates.isEmpty()) {
+                var firstCandidate = candidates.get(0);
+                var contentNode = firstCandidate.get("content");
+                if (contentNode != null) {
+                    var partsNode = contentNode.get("parts");
+                    if (partsNode != null && partsNode.isArray() && !partsNode.isEmpty()) {
+                        return partsNode.get(0).get("text").asText();
                     }
                 }
-
-                throw new Exception("Invalid response structure from Gemini API");
             }
+
+            throw new Exception("Invalid response structure from Gemini API");
         }
     }
 }
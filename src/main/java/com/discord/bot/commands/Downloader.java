@@ -4,6 +4,16 @@ import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEve
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
+import com.discord.bot.handlers.DownloadScheduler;
+import com.discord.bot.handlers.DownloaderHandler;
+import com.discord.bot.handlers.HttpHandler;
+import com.discord.bot.handlers.MediaDownloader;
+import com.discord.bot.handlers.MediaReply;
+import com.discord.bot.handlers.TwitterHandler;
+import com.discord.bot.handlers.YtdlHandler;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 public class Downloader {
 
@@ -21,26 +31,44 @@ public class Downloader {
         String message = interaction.getOption("message") != null ?
             interaction.getOption("message").getAsString() : "";
 
-        try {
-            // Detect platform and provide appropriate response
-            if (url.contains("instagram.com") || url.contains("instagr.am")) {
-                interaction.getHook().editOriginal("Instagram downloader: " + url +
-                    (message.isEmpty() ? "" : "\nMessage: " + message)).queue();
-            } else if (url.contains("tiktok.com")) {
-                interaction.getHook().editOriginal("TikTok downloader: " + url +
-                    (message.isEmpty() ? "" : "\nMessage: " + message)).queue();
-            } else if (url.contains("facebook.com") || url.contains("fb.watch")) {
-                interaction.getHook().editOriginal("Facebook downloader: " + url +
-                    (message.isEmpty() ? "" : "\nMessage: " + message)).queue();
-            } else if (url.contains("twitter.com") || url.contains("x.com")) {
-                interaction.getHook().editOriginal("Twitter/X downloader: " + url +
-                    (message.isEmpty() ? "" : "\nMessage: " + message)).queue();
-            } else {
-                interaction.getHook().editOriginal("Unsupported platform. Please use a URL from Instagram, TikTok, Facebook, or Twitter/X.").queue();
-            }
-        } catch (Exception error) {
-            System.err.println("Downloader error: " + error.getMessage());
-            interaction.getHook().editOriginal("An error occurred while processing the download request").queue();
+        if (!url.matches("^https?://\\S+")) {
+            interaction.getHook().editOriginal("Please enter a valid URL.").queue();
+            return;
+        }
+
+        String userId = interaction.getUser().getId();
+        long uploadLimit = MediaDownloader.getUploadLimit(interaction.getGuild());
+        MediaReply reply = MediaReply.toHook(interaction.getHook());
+
+        // Same engine as the prefix commands; the work runs on the async pipeline
+        Supplier<CompletableFuture<?>> task;
+        if (url.contains("instagram.com") || url.contains("instagr.am")) {
+            task = () -> DownloaderHandler.download("ig", url, DownloaderHandler.buildContent(message, userId), uploadLimit, reply);
+        } else if (url.contains("tiktok.com")) {
+            task = () -> DownloaderHandler.download("tt", url, DownloaderHandler.buildContent(message, userId), uploadLimit, reply);
+        } else if (url.contains("facebook.com") || url.contains("fb.watch")) {
+            task = () -> DownloaderHandler.download("fb", url, DownloaderHandler.buildContent(message, userId), uploadLimit, reply);
+        } else if (url.contains("twitter.com") || url.contains("x.com")) {
+            task = () -> TwitterHandler.download(url, message, userId, uploadLimit, reply);
+        } else if (url.contains("youtube.com") || url.contains("youtu.be")) {
+            task = () -> YtdlHandler.download(url, userId, uploadLimit, reply);
+        } else {
+            interaction.getHook().editOriginal("Unsupported platform. Please use a URL from Instagram, TikTok, " +
+                    "Facebook, Twitter/X, or YouTube.").queue();
+            return;
+        }
+
+        reply.status("⏳ Waiting for a download slot...");
+        String guildId = interaction.getGuild() != null ? interaction.getGuild().getId() : "dm";
+        boolean queued = DownloadScheduler.submit(guildId, userId, null, () -> task.get().exceptionally(error -> {
+            Throwable e = HttpHandler.rootCause(error);
+            System.err.println("Downloader error: " + e.getMessage());
+            interaction.getHook().editOriginal("❌ An error occurred while processing the download request").queue();
+            return null;
+        }));
+
+        if (!queued) {
+            interaction.getHook().editOriginal("⏳ You already have too many downloads waiting, please try again shortly.").queue();
         }
     }
 }
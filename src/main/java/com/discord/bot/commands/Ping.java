@@ -17,8 +17,7 @@ public class Ping {
 
     public static void execute(SlashCommandInteractionEvent interaction) {
         try {
-            interaction.deferReply().queue();
-
+            // Deferred by the command registry
             long startTime = System.currentTimeMillis();
 
             interaction.getHook().retrieveOriginal().queue(reply -> {
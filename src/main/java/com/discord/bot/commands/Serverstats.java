@@ -4,6 +4,14 @@ import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.interactions.commands.build.CommandData;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
+import com.discord.bot.handlers.AttachmentIndex;
+import com.discord.bot.handlers.BandwidthShaper;
+import com.discord.bot.handlers.CommandRegistry;
+import com.discord.bot.handlers.DownloadScheduler;
+import com.discord.bot.handlers.HttpHandler;
+import com.discord.bot.handlers.RateLimiter;
+import com.discord.bot.handlers.ResolveCache;
+import com.discord.bot.handlers.StallWatchdog;
 
 import java.awt.Color;
 import java.lang.management.ManagementFactory;
@@ -102,6 +110,14 @@ public class Serverstats {
                     .addField("🖧 Platform", osName + " " + osArch, true)
                     .addField("🏷️ Hostname", hostname, true)
                     .addField("☕ Java Version", System.getProperty("java.version"), true)
+                    .addField("🌐 HTTP Pool", HttpHandler.getPoolStats(), false)
+                    .addField("📥 Downloads", DownloadScheduler.getStats(), false)
+                    .addField("🔎 Resolve Cache", ResolveCache.getStats(), false)
+                    .addField("♻️ Reused Uploads", AttachmentIndex.getStats(), false)
+                    .addField("📶 Bandwidth", BandwidthShaper.getStats(), false)
+                    .addField("⏱️ Commands", CommandRegistry.getStats(), false)
+                    .addField("🧊 Stalls", StallWatchdog.getStats(), false)
+                    .addField("🚦 Rate Limit", RateLimiter.getStats(), false)
                     .setTimestamp(Instant.now())
                     .setFooter("Stats Server Hosting");
 
@@ -1,147 +1,196 @@
 package com.discord.bot.events;
 
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.emoji.Emoji;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.requests.RestAction;
 import com.discord.bot.handlers.AiChatState;
 import com.discord.bot.handlers.AiHandler;
+import com.discord.bot.handlers.DownloadScheduler;
+import com.discord.bot.handlers.DownloaderHandler;
+import com.discord.bot.handlers.HttpHandler;
+import com.discord.bot.handlers.OrderedExecutor;
+import com.discord.bot.handlers.PrefixRouter;
+import com.discord.bot.handlers.RateLimiter;
+import com.discord.bot.handlers.TwitterHandler;
+import com.discord.bot.handlers.YtdlHandler;
 import io.github.cdimascio.dotenv.Dotenv;
 
 import java.util.List;
 
 /**
- * Event handler for message creation.
+ * Event handler for message creation. This is the only message listener:
+ * each message is classified once as a prefix command, a message in an
+ * active AI chat session, or neither, and routed to that stage.
  */
 public class MessageCreate extends ListenerAdapter {
 
     private static final Dotenv dotenv = Dotenv.configure().load();
 
+    // AI session replies wait on the model for seconds; they keep their own
+    // per-channel order instead of holding up the channel's event chain
+    private static final OrderedExecutor SESSION_MESSAGES = new OrderedExecutor("ai-session-");
+
+    // Downloader commands are queued fairly behind a global concurrency cap;
+    // AI commands (f.geminipropreview, f.geminipro, f.geminiflash, f.llama,
+    // f.deepseek-r1, f.ai) are handled by AiHandler
+    private static final PrefixRouter PREFIX_COMMANDS = new PrefixRouter("f.")
+            .on("x", event -> DownloadScheduler.submit(event, () -> TwitterHandler.handleX(event)))
+            .on("ig", event -> DownloadScheduler.submit(event, () -> DownloaderHandler.handleIg(event)))
+            .on("fb", event -> DownloadScheduler.submit(event, () -> DownloaderHandler.handleFb(event)))
+            .on("tt", event -> DownloadScheduler.submit(event, () -> DownloaderHandler.handleTt(event)))
+            .on("yt", event -> DownloadScheduler.submit(event, () -> YtdlHandler.handleYtDownload(event)))
+            .on("geminipropreview", AiHandler::handleAiChat)
+            .on("geminipro", AiHandler::handleAiChat)
+            .on("geminiflash", AiHandler::handleAiChat)
+            .on("llama", AiHandler::handleAiChat)
+            .on("deepseek-r1", AiHandler::handleAiChat)
+            .onExact("ai", AiHandler::handleAiChat)
+            .guard(MessageCreate::admit);
+
     @Override
     public void onMessageReceived(MessageReceivedEvent event) {
-        // Skip bot messages and non-guild messages
-        if (event.getAuthor().isBot() || !event.isFromGuild()) return;
+        // Skip bot messages
+        if (event.getAuthor().isBot()) return;
 
         try {
-            String channelId = event.getChannel().getId();
-            String userId = event.getAuthor().getId();
-            String messageContent = event.getMessage().getContentDisplay();
-
-            // Check for active AI chat session
-            if (AiChatState.hasActiveChat(channelId)) {
-                var chatData = AiChatState.getActiveChat(channelId);
-
-                // Only respond to the user who started the chat
-                if (!userId.equals(chatData.getUserId())) return;
-
-                // Build combined content for AI (including attachments)
-                StringBuilder combinedContentForAI = new StringBuilder(messageContent);
-                StringBuilder fileInfoText = new StringBuilder();
-
-                // Read attachments in this message
-                if (!event.getMessage().getAttachments().isEmpty()) {
-                    // Send typing indicator
-                    event.getChannel().sendTyping().queue();
-
-                    StringBuilder fileContents = new StringBuilder();
-                    StringBuilder fileNames = new StringBuilder();
-
-                    // Show reading message
-                    var readingMsg = event.getMessage().reply(
-                            "Analyzing " + event.getMessage().getAttachments().size() + " file(s)..."
-                    ).complete();
-
-                    for (var attachment : event.getMessage().getAttachments()) {
-                        if (!fileNames.isEmpty()) fileNames.append(", ");
-                        fileNames.append("`").append(attachment.getFileName()).append("`");
-
-                        try {
-                            // Use AiHandler's readAttachment method
-                            String content = AiHandler.readAttachment(attachment);
-                            if (!content.startsWith("[Failed to read file")) {
-                                fileContents.append("\n\n--- File: ")
-                                        .append(attachment.getFileName())
-                                        .append(" ---\n")
-                                        .append(content)
-                                        .append("\n--- End File ---");
-                            } else {
-                                fileContents.append("\n\n[Notify: Failed to read ")
-                                        .append(attachment.getFileName())
-                                        .append("]");
-                                event.getChannel().sendMessage("⚠️ Failed to read file " + attachment.getFileName() + ".")
-                                        .queue();
-                            }
-                        } catch (Exception readError) {
-                            fileContents.append("\n\n[Error reading file: ")
-                                    .append(attachment.getFileName())
-                                    .append("]");
-                            event.getChannel().sendMessage("⚠️ Error reading file " + attachment.getFileName() + ".")
-                                    .queue();
-                        }
+            // Prefix commands, from the raw content
+            if (PREFIX_COMMANDS.route(event)) return;
+
+            // AI chat sessions only run in guild channels
+            if (!event.isFromGuild()) return;
+
+            var chatData = AiChatState.getActiveChat(event.getChannel().getId());
+
+            // Only respond to the user who started the chat
+            if (chatData != null && event.getAuthor().getId().equals(chatData.getUserId())) {
+                SESSION_MESSAGES.execute(event.getChannel().getIdLong(), () -> {
+                    try {
+                        handleSessionMessage(event, chatData);
+                    } catch (Exception error) {
+                        System.err.println("[MessageCreate] Error: " + error.getMessage());
+                        error.printStackTrace();
                     }
+                });
+            }
+        } catch (Exception error) {
+            System.err.println("[MessageCreate] Error: " + error.getMessage());
+            error.printStackTrace();
+        }
+    }
+
+    /**
+     * Charges a prefix command to the rate limiter. Throttled messages only
+     * get a reaction, so a flood doesn't turn into a flood of replies.
+     */
+    private static boolean admit(String command, MessageReceivedEvent event) {
+        long guildId = event.isFromGuild() ? event.getGuild().getIdLong() : RateLimiter.NO_GUILD;
+        long wait = RateLimiter.tryAcquire(command, guildId, event.getChannel().getIdLong(),
+                event.getAuthor().getIdLong());
+        if (wait == 0) return true;
+
+        event.getMessage().addReaction(Emoji.fromUnicode("⏳")).queue(null, t -> {});
+        return false;
+    }
+
+    /**
+     * Sends a message in an active AI chat session to the model, with its attachments
+     */
+    private void handleSessionMessage(MessageReceivedEvent event, AiChatState.ChatData chatData) {
+        // Resolved only for messages that go to the AI
+        String messageContent = event.getMessage().getContentDisplay();
 
-                    // Delete reading message
-                    readingMsg.delete().queue(null, t -> {});
+        // Build combined content for AI (including attachments)
+        StringBuilder combinedContentForAI = new StringBuilder(messageContent);
+        StringBuilder fileInfoText = new StringBuilder();
 
-                    if (!fileContents.isEmpty()) {
-                        combinedContentForAI.append(fileContents);
-                        fileInfoText.append(" (inc ").append(fileNames).append(")");
+        // Read attachments in this message
+        if (!event.getMessage().getAttachments().isEmpty()) {
+            // Send typing indicator
+            event.getChannel().sendTyping().queue();
+
+            StringBuilder fileContents = new StringBuilder();
+            StringBuilder fileNames = new StringBuilder();
+
+            // Show reading message; the attachments are read while it is sent
+            var readingMsg = event.getMessage().reply(
+                    "Analyzing " + event.getMessage().getAttachments().size() + " file(s)..."
+            ).submit();
+
+            for (var attachment : event.getMessage().getAttachments()) {
+                if (!fileNames.isEmpty()) fileNames.append(", ");
+                fileNames.append("`").append(attachment.getFileName()).append("`");
+
+                try {
+                    // Use AiHandler's readAttachment method
+                    String content = AiHandler.readAttachment(attachment);
+                    if (!content.startsWith("[Failed to read file")) {
+                        fileContents.append("\n\n--- File: ")
+                                .append(attachment.getFileName())
+                                .append(" ---\n")
+                                .append(content)
+                                .append("\n--- End File ---");
+                    } else {
+                        fileContents.append("\n\n[Notify: Failed to read ")
+                                .append(attachment.getFileName())
+                                .append("]");
+                        event.getChannel().sendMessage("⚠️ Failed to read file " + attachment.getFileName() + ".")
+                                .queue();
                     }
+                } catch (Exception readError) {
+                    fileContents.append("\n\n[Error reading file: ")
+                            .append(attachment.getFileName())
+                            .append("]");
+                    event.getChannel().sendMessage("⚠️ Error reading file " + attachment.getFileName() + ".")
+                            .queue();
                 }
+            }
 
-                // Skip empty messages
-                if (combinedContentForAI.toString().trim().isEmpty()) return;
+            // Delete reading message
+            readingMsg.thenAccept(msg -> msg.delete().queue(null, t -> {}));
 
-                // Send typing indicator
-                event.getChannel().sendTyping().queue();
+            if (!fileContents.isEmpty()) {
+                combinedContentForAI.append(fileContents);
+                fileInfoText.append(" (inc ").append(fileNames).append(")");
+            }
+        }
 
-                String modelName = chatData.getModelName();
-                System.out.println("[AI Session Msg] Send to " + modelName + fileInfoText +
-                        ". Len: " + combinedContentForAI.length());
+        // Skip empty messages
+        if (combinedContentForAI.toString().trim().isEmpty()) return;
 
-                // Generate AI response using the Gemini API
-                try {
-                    String aiResponse = callGeminiForSession(combinedContentForAI.toString());
+        // Send typing indicator
+        event.getChannel().sendTyping().queue();
 
-                    System.out.println("[AI Session Msg] Received from " + modelName +
-                            ". Len: " + (aiResponse != null ? aiResponse.length() : 0));
+        String modelName = chatData.getModelName();
+        System.out.println("[AI Session Msg] Send to " + modelName + fileInfoText +
+                ". Len: " + combinedContentForAI.length());
 
-                    if (aiResponse == null || aiResponse.trim().isEmpty()) {
-                        return;
-                    }
+        // Generate AI response using the Gemini API
+        try {
+            String aiResponse = callGeminiForSession(combinedContentForAI.toString());
 
-                    // Split and send response
-                    List<String> chunks = AiHandler.splitMessage(aiResponse, 1990);
-                    var replyTo = event.getMessage();
-
-                    for (int i = 0; i < chunks.size(); i++) {
-                        final int index = i;
-                        final var currentReplyTo = replyTo;
-
-                        replyTo.reply(chunks.get(index)).queue(sentMsg -> {
-                            // Update replyTo for next iteration (handled through completion)
-                        }, error -> {
-                            System.err.println("[AI Session Msg] Failed to send chunk " + (index + 1) +
-                                    ": " + error.getMessage());
-                        });
-
-                        // Add delay between messages
-                        if (i < chunks.size() - 1) {
-                            try {
-                                Thread.sleep(500);
-                            } catch (InterruptedException e) {
-                                Thread.currentThread().interrupt();
-                            }
-                        }
-                    }
+            System.out.println("[AI Session Msg] Received from " + modelName +
+                    ". Len: " + (aiResponse != null ? aiResponse.length() : 0));
 
-                } catch (Exception e) {
-                    System.err.println("[AI Session Msg] Error: " + e.getMessage());
-                    event.getMessage().reply("⚠️ Failed to generate response: " + e.getMessage()).queue();
-                }
+            if (aiResponse == null || aiResponse.trim().isEmpty()) {
+                return;
             }
 
-        } catch (Exception error) {
-            System.err.println("[MessageCreate] Error: " + error.getMessage());
-            error.printStackTrace();
+            // Split and send response; each chunk is sent once the previous
+            // one is posted, which keeps them in order without sleeping
+            List<String> chunks = AiHandler.splitMessage(aiResponse, 1990);
+            var replyTo = event.getMessage();
+
+            RestAction<Message> chain = null;
+            for (String chunk : chunks) {
+                chain = chain == null ? replyTo.reply(chunk) : chain.flatMap(sent -> replyTo.reply(chunk));
+            }
+            chain.queue(null, error -> System.err.println("[AI Session Msg] Failed to send chunk: " + error.getMessage()));
+
+        } catch (Exception e) {
+            System.err.println("[AI Session Msg] Error: " + e.getMessage());
+            event.getMessage().reply("⚠️ Failed to generate response: " + e.getMessage()).queue();
         }
     }
 
@@ -163,36 +212,34 @@ public class MessageCreate extends ListenerAdapter {
             var part = parts.addObject();
             part.put("text", prompt);
 
-            try (var client = org.apache.hc.client5.http.impl.classic.HttpClients.createDefault()) {
-                var request = new org.apache.hc.client5.http.classic.methods.HttpPost(apiUrl);
-                request.setHeader("Content-Type", "application/json");
-                request.setEntity(new org.apache.hc.core5.http.io.entity.StringEntity(
-                        objectMapper.writeValueAsString(requestBody),
-                        org.apache.hc.core5.http.ContentType.APPLICATION_JSON
-                ));
+            var request = new org.apache.hc.client5.http.classic.methods.HttpPost(apiUrl);
+            request.setHeader("Content-Type", "application/json");
+            request.setEntity(new org.apache.hc.core5.http.io.entity.StringEntity(
+                    objectMapper.writeValueAsString(requestBody),
+                    org.apache.hc.core5.http.ContentType.APPLICATION_JSON
+            ));
 
-                try (var response = client.execute(request)) {
-                    String jsonResponse = org.apache.hc.core5.http.io.entity.EntityUtils.toString(response.getEntity());
-                    var responseJson = objectMapper.readTree(jsonResponse);
+            try (var response = HttpHandler.getClient().execute(request)) {
+                String jsonResponse = org.apache.hc.core5.http.io.entity.EntityUtils.toString(response.getEntity());
+                var responseJson = objectMapper.readTree(jsonResponse);
 
-                    if (responseJson.has("error")) {
-                        throw new Exception(responseJson.get("error").get("message").asText());
-                    }
+                if (responseJson.has("error")) {
+                    throw new Exception(responseJson.get("error").get("message").asText());
+                }
 
-                    var candidates = responseJson.get("candidates");
-                    if (candidates != null && candidates.isArray() && !candidates.isEmpty()) {
-                        var firstCandidate = candidates.get(0);
-                        var contentNode = firstCandidate.get("content");
-                        if (contentNode != null) {
-                            var partsNode = contentNode.get("parts");
-                            if (partsNode != null && partsNode.isArray() && !partsNode.isEmpty()) {
-                                return partsNode.get(0).get("text").asText();
-                            }
+                var candidates = responseJson.get("candidates");
+                if (candidates != null && candidates.isArray() && !candidates.isEmpty()) {
+                    var firstCandidate = candidates.get(0);
+                    var contentNode = firstCandidate.get("content");
+                    if (contentNode != null) {
+                        var partsNode = contentNode.get("parts");
+                        if (partsNode != null && partsNode.isArray() && !partsNode.isEmpty()) {
+                            return partsNode.get(0).get("text").asText();
                         }
                     }
-
-                    throw new Exception("Invalid response structure from Gemini API");
                 }
+
+                throw new Exception("Invalid response structure from Gemini API");
             }
         } catch (Exception e) {
             System.err.println("Error calling Gemini API: " + e.getMessage());
@@ -4,14 +4,10 @@ import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.Permission;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.classic.methods.HttpPost;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.ContentType;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
-import org.apache.hc.core5.http.io.entity.StringEntity;
 import org.apache.pdfbox.Loader;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
@@ -56,6 +52,10 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -68,6 +68,14 @@ public class AiHandler {
     private static final String LOG_CHANNEL_ID = dotenv.get("LOG_CHANNEL_ID");
     private static final ObjectMapper objectMapper = new ObjectMapper();
 
+    // Parsing and OCR are CPU bound, keep them off the HTTP and JDA threads
+    private static final ExecutorService ATTACHMENT_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), runnable -> {
+                Thread thread = new Thread(runnable, "attachment-reader");
+                thread.setDaemon(true);
+                return thread;
+            });
+
     // Model configurations
     private static final String LLAMA_MODEL = "meta-llama/Llama-4-Maverick-17B-128E-Instruct-FP8";
     private static final String DEEPSEEK_MODEL = "deepseek-ai/DeepSeek-R1";
@@ -168,28 +176,72 @@ public class AiHandler {
         try {
             String url = attachment.getUrl();
             String name = attachment.getFileName().toLowerCase();
+            Path tempPath = createTempPath(attachment);
 
-            Path tempDir = Paths.get("temp");
-            if (!Files.exists(tempDir)) {
-                System.out.println("[File Read] Creating temporary directory: " + tempDir);
-                Files.createDirectories(tempDir);
+            // Download file
+            HttpGet request = new HttpGet(url);
+            try (ClassicHttpResponse response = HttpHandler.getClient().execute(request);
+                 InputStream inputStream = response.getEntity().getContent();
+                 FileOutputStream outputStream = new FileOutputStream(tempPath.toFile())) {
+                byte[] data = inputStream.readAllBytes();
+                outputStream.write(data);
+                System.out.println("[File Read] Download successful: " + name + " (" + data.length + " bytes)");
             }
 
-            Path tempPath = tempDir.resolve(System.currentTimeMillis() + "_" + attachment.getId() + "_" + name);
-            System.out.println("[File Read] Downloading attachment: " + name + " to " + tempPath);
+            return extractAttachmentText(name, tempPath);
 
-            // Download file
-            try (CloseableHttpClient client = HttpClients.createDefault()) {
-                HttpGet request = new HttpGet(url);
-                try (ClassicHttpResponse response = client.execute(request);
-                     InputStream inputStream = response.getEntity().getContent();
-                     FileOutputStream outputStream = new FileOutputStream(tempPath.toFile())) {
-                    byte[] data = inputStream.readAllBytes();
-                    outputStream.write(data);
-                    System.out.println("[File Read] Download successful: " + name + " (" + data.length + " bytes)");
-                }
-            }
+        } catch (Exception e) {
+            System.err.println("[File Read] Failed to process attachment: " + e.getMessage());
+            return "[Failed to read file: " + attachment.getFileName() + " - Error: " + e.getMessage() + "]";
+        }
+    }
+
+    /**
+     * Reads attachment content without blocking the caller. The download runs on the
+     * async HTTP client and parsing/OCR runs on the attachment executor.
+     */
+    public static CompletableFuture<String> readAttachmentAsync(Message.Attachment attachment) {
+        String name = attachment.getFileName().toLowerCase();
+        var request = SimpleRequestBuilder.get(attachment.getUrl()).build();
+
+        return HttpHandler.executeAsync(request)
+                .thenApplyAsync(response -> {
+                    try {
+                        Path tempPath = createTempPath(attachment);
+                        byte[] data = response.getBodyBytes() != null ? response.getBodyBytes() : new byte[0];
+                        Files.write(tempPath, data);
+                        System.out.println("[File Read] Download successful: " + name + " (" + data.length + " bytes)");
+                        return extractAttachmentText(name, tempPath);
+                    } catch (IOException e) {
+                        throw new CompletionException(e);
+                    }
+                }, ATTACHMENT_EXECUTOR)
+                .exceptionally(error -> {
+                    Throwable e = HttpHandler.rootCause(error);
+                    System.err.println("[File Read] Failed to process attachment: " + e.getMessage());
+                    return "[Failed to read file: " + attachment.getFileName() + " - Error: " + e.getMessage() + "]";
+                });
+    }
+
+    private static Path createTempPath(Message.Attachment attachment) throws IOException {
+        String name = attachment.getFileName().toLowerCase();
+
+        Path tempDir = Paths.get("temp");
+        if (!Files.exists(tempDir)) {
+            System.out.println("[File Read] Creating temporary directory: " + tempDir);
+            Files.createDirectories(tempDir);
+        }
 
+        Path tempPath = tempDir.resolve(System.currentTimeMillis() + "_" + attachment.getId() + "_" + name);
+        System.out.println("[File Read] Downloading attachment: " + name + " to " + tempPath);
+        return tempPath;
+    }
+
+    /**
+     * Extracts text from a downloaded attachment and deletes the temp file
+     */
+    private static String extractAttachmentText(String name, Path tempPath) throws IOException {
+        try {
             StringBuilder text = new StringBuilder("[File Name: ").append(name).append("]\n");
             File file = tempPath.toFile();
             long fileSize = file.length();
@@ -354,6 +406,9 @@ public class AiHandler {
                 System.out.println("[File Read] Content of " + name + " truncated.");
             }
 
+            return result;
+
+        } finally {
             // Cleanup temp file
             try {
                 Files.deleteIfExists(tempPath);
@@ -361,12 +416,6 @@ public class AiHandler {
             } catch (Exception e) {
                 System.err.println("[File Read] Failed to delete temp " + tempPath + ": " + e.getMessage());
             }
-
-            return result;
-
-        } catch (Exception e) {
-            System.err.println("[File Read] Failed to process attachment: " + e.getMessage());
-            return "[Failed to read file: " + attachment.getFileName() + " - Error: " + e.getMessage() + "]";
         }
     }
 
@@ -405,47 +454,39 @@ public class AiHandler {
             return;
         }
 
-        // Process in async
-        CompletableFuture.runAsync(() -> {
-            try {
-                // Read attachments
-                StringBuilder fileContent = new StringBuilder();
-                if (!event.getMessage().getAttachments().isEmpty()) {
-                    for (Message.Attachment attachment : event.getMessage().getAttachments()) {
-                        try {
-                            String attachmentContent = readAttachment(attachment);
-                            fileContent.append(String.format(
-                                    "--- File: %s ---\n%s\n--- End of %s ---\n\n",
-                                    attachment.getFileName(), attachmentContent, attachment.getFileName()));
-                        } catch (Exception e) {
-                            fileContent.append(String.format(
-                                    "--- File: %s ---\n[Failed to read attachment: %s]\n--- End of %s ---\n\n",
-                                    attachment.getFileName(), e.getMessage(), attachment.getFileName()));
-                        }
+        // Read attachments without holding a thread while they download
+        List<CompletableFuture<String>> attachmentReads = event.getMessage().getAttachments().stream()
+                .map(attachment -> readAttachmentAsync(attachment).thenApply(attachmentContent -> String.format(
+                        "--- File: %s ---\n%s\n--- End of %s ---\n\n",
+                        attachment.getFileName(), attachmentContent, attachment.getFileName())))
+                .toList();
+
+        CompletableFuture.allOf(attachmentReads.toArray(new CompletableFuture<?>[0]))
+                .thenAccept(ignored -> {
+                    StringBuilder fileContent = new StringBuilder();
+                    attachmentReads.forEach(read -> fileContent.append(read.join()));
+
+                    // Route to appropriate handler
+                    if (content.startsWith("f.geminipropreview")) {
+                        handleGeminiResponse(event, "f.geminipropreview", fileContent.toString(),
+                                "gemini-3-pro-preview", "Gemini 3.0 Pro Preview", "https://i.imgur.com/7FNd7DF.png");
+                    } else if (content.startsWith("f.geminipro")) {
+                        handleGeminiResponse(event, "f.geminipro", fileContent.toString(),
+                                "gemini-2.5-pro", "Gemini 2.5 Pro", "https://i.imgur.com/7FNd7DF.png");
+                    } else if (content.startsWith("f.geminiflash")) {
+                        handleGeminiResponse(event, "f.geminiflash", fileContent.toString(),
+                                "gemini-2.5-flash", "Gemini 2.5 Flash Preview", "https://i.imgur.com/7FNd7DF.png");
+                    } else if (content.startsWith("f.llama")) {
+                        handleLlamaResponse(event, "f.llama", fileContent.toString());
+                    } else if (content.startsWith("f.deepseek-r1")) {
+                        handleDeepSeekResponse(event, "f.deepseek-r1", fileContent.toString());
                     }
-                }
-
-                // Route to appropriate handler
-                if (content.startsWith("f.geminipropreview")) {
-                    handleGeminiResponse(event, "f.geminipropreview", fileContent.toString(),
-                            "gemini-3-pro-preview", "Gemini 3.0 Pro Preview", "https://i.imgur.com/7FNd7DF.png");
-                } else if (content.startsWith("f.geminipro")) {
-                    handleGeminiResponse(event, "f.geminipro", fileContent.toString(),
-                            "gemini-2.5-pro", "Gemini 2.5 Pro", "https://i.imgur.com/7FNd7DF.png");
-                } else if (content.startsWith("f.geminiflash")) {
-                    handleGeminiResponse(event, "f.geminiflash", fileContent.toString(),
-                            "gemini-2.5-flash", "Gemini 2.5 Flash Preview", "https://i.imgur.com/7FNd7DF.png");
-                } else if (content.startsWith("f.llama")) {
-                    handleLlamaResponse(event, "f.llama", fileContent.toString());
-                } else if (content.startsWith("f.deepseek-r1")) {
-                    handleDeepSeekResponse(event, "f.deepseek-r1", fileContent.toString());
-                }
-
-            } catch (Exception e) {
-                event.getChannel().sendMessage("An error occurred while processing your request: " + e.getMessage())
-                        .queue();
-            }
-        });
+                })
+                .exceptionally(error -> {
+                    event.getChannel().sendMessage("An error occurred while processing your request: " +
+                            HttpHandler.rootCause(error).getMessage()).queue();
+                    return null;
+                });
     }
 
     private static void handleGeminiResponse(MessageReceivedEvent event, String prefix, String fileContent,
@@ -470,31 +511,30 @@ public class AiHandler {
                 .setTimestamp(Instant.now())
                 .build();
 
-        event.getMessage().replyEmbeds(thinkingEmbed).queue(thinkingMessage -> {
-            try {
-                String answer = callGeminiApi(prompt, modelId);
-
-                if (answer == null || answer.isEmpty()) {
-                    throw new Exception("AI returned empty response");
-                }
-
-                sendResponseWithEdit(thinkingMessage, answer, modelName, iconUrl, event.getAuthor().getName());
-
-                // Send log
-                sendAiLog(event, modelName, userQuestion, 1);
+        event.getMessage().replyEmbeds(thinkingEmbed).queue(thinkingMessage -> callGeminiApi(prompt, modelId)
+                .thenAccept(answer -> {
+                    if (answer == null || answer.isEmpty()) {
+                        throw new CompletionException(new Exception("AI returned empty response"));
+                    }
 
-            } catch (Exception e) {
-                System.err.println(modelName + " Processing Error: " + e.getMessage());
-                var errorEmbed = new EmbedBuilder()
-                        .setTitle("Processing Error")
-                        .setDescription("Failed to generate " + modelName + " response")
-                        .addField("Error", e.getMessage().substring(0, Math.min(e.getMessage().length(), 1024)), false)
-                        .addField("User", event.getAuthor().getAsMention(), false)
-                        .setColor(Color.RED)
-                        .build();
-                thinkingMessage.editMessageEmbeds(errorEmbed).queue();
-            }
-        });
+                    sendResponseWithEdit(thinkingMessage, answer, modelName, iconUrl, event.getAuthor().getName());
+
+                    // Send log
+                    sendAiLog(event, modelName, userQuestion, 1);
+                })
+                .exceptionally(error -> {
+                    Throwable e = HttpHandler.rootCause(error);
+                    System.err.println(modelName + " Processing Error: " + e.getMessage());
+                    var errorEmbed = new EmbedBuilder()
+                            .setTitle("Processing Error")
+                            .setDescription("Failed to generate " + modelName + " response")
+                            .addField("Error", e.getMessage().substring(0, Math.min(e.getMessage().length(), 1024)), false)
+                            .addField("User", event.getAuthor().getAsMention(), false)
+                            .setColor(Color.RED)
+                            .build();
+                    thinkingMessage.editMessageEmbeds(errorEmbed).queue();
+                    return null;
+                }));
     }
 
     private static void handleLlamaResponse(MessageReceivedEvent event, String prefix, String fileContent) {
@@ -509,19 +549,19 @@ public class AiHandler {
         String prompt = fileContent.isEmpty() ? userQuestion :
                 userQuestion + "\n\n[File Content Start]\n" + fileContent + "[File Content End]";
 
-        try {
-            String answer = callTogetherApi(prompt, LLAMA_MODEL);
-
-            if (answer == null || answer.isEmpty()) {
-                throw new Exception("AI returned empty response");
-            }
-
-            int partsSent = sendResponse(event, answer, "Llama 4 Maverick AI", "https://i.imgur.com/i0vcc7G.jpeg");
-            sendAiLog(event, "Llama AI", userQuestion, partsSent);
+        callTogetherApi(prompt, LLAMA_MODEL)
+                .thenAccept(answer -> {
+                    if (answer == null || answer.isEmpty()) {
+                        throw new CompletionException(new Exception("AI returned empty response"));
+                    }
 
-        } catch (Exception e) {
-            handleError(event, "Llama 4", e, userQuestion);
-        }
+                    int partsSent = sendResponse(event, answer, "Llama 4 Maverick AI", "https://i.imgur.com/i0vcc7G.jpeg");
+                    sendAiLog(event, "Llama AI", userQuestion, partsSent);
+                })
+                .exceptionally(error -> {
+                    handleError(event, "Llama 4", HttpHandler.rootCause(error), userQuestion);
+                    return null;
+                });
     }
 
     private static void handleDeepSeekResponse(MessageReceivedEvent event, String prefix, String fileContent) {
@@ -536,28 +576,28 @@ public class AiHandler {
         String prompt = fileContent.isEmpty() ? userQuestion :
                 userQuestion + "\n\n[File Content Start]\n" + fileContent + "[File Content End]";
 
-        try {
-            String answer = callTogetherApi(prompt, DEEPSEEK_MODEL);
-
-            if (answer == null || answer.isEmpty()) {
-                throw new Exception("AI returned empty response");
-            }
-
-            // Apply think blockquote formatting for DeepSeek
-            answer = formatThinkBlockquote(answer);
+        callTogetherApi(prompt, DEEPSEEK_MODEL)
+                .thenAccept(answer -> {
+                    if (answer == null || answer.isEmpty()) {
+                        throw new CompletionException(new Exception("AI returned empty response"));
+                    }
 
-            int partsSent = sendResponse(event, answer, "DeepSeek R1", "https://i.imgur.com/yIilZ11.png");
-            sendAiLog(event, "DeepSeek R1", userQuestion, partsSent);
+                    // Apply think blockquote formatting for DeepSeek
+                    String formattedAnswer = formatThinkBlockquote(answer);
 
-        } catch (Exception e) {
-            handleError(event, "DeepSeek R1", e, userQuestion);
-        }
+                    int partsSent = sendResponse(event, formattedAnswer, "DeepSeek R1", "https://i.imgur.com/yIilZ11.png");
+                    sendAiLog(event, "DeepSeek R1", userQuestion, partsSent);
+                })
+                .exceptionally(error -> {
+                    handleError(event, "DeepSeek R1", HttpHandler.rootCause(error), userQuestion);
+                    return null;
+                });
     }
 
     /**
      * Calls the Gemini API with the given prompt
      */
-    private static String callGeminiApi(String prompt, String modelId) throws Exception {
+    private static CompletableFuture<String> callGeminiApi(String prompt, String modelId) {
         String apiUrl = "https://generativelanguage.googleapis.com/v1beta/models/" + modelId +
                 ":generateContent?key=" + GEMINI_API_KEY;
 
@@ -568,14 +608,13 @@ public class AiHandler {
         ObjectNode part = parts.addObject();
         part.put("text", prompt);
 
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            HttpPost request = new HttpPost(apiUrl);
-            request.setHeader("Content-Type", "application/json");
-            request.setEntity(new StringEntity(objectMapper.writeValueAsString(requestBody), ContentType.APPLICATION_JSON));
+        var request = SimpleRequestBuilder.post(apiUrl)
+                .setBody(requestBody.toString(), ContentType.APPLICATION_JSON)
+                .build();
 
-            try (ClassicHttpResponse response = client.execute(request)) {
-                String jsonResponse = EntityUtils.toString(response.getEntity());
-                JsonNode responseJson = objectMapper.readTree(jsonResponse);
+        return HttpHandler.executeAsync(request).thenApply(response -> {
+            try {
+                JsonNode responseJson = objectMapper.readTree(HttpHandler.bodyAsString(response));
 
                 // Check for error
                 if (responseJson.has("error")) {
@@ -596,14 +635,16 @@ public class AiHandler {
                 }
 
                 throw new Exception("Invalid response structure from Gemini API");
+            } catch (Exception e) {
+                throw new CompletionException(e);
             }
-        }
+        });
     }
 
     /**
      * Calls the Together AI API (for Llama and DeepSeek)
      */
-    private static String callTogetherApi(String prompt, String model) throws Exception {
+    private static CompletableFuture<String> callTogetherApi(String prompt, String model) {
         String apiUrl = "https://api.together.ai/v1/chat/completions";
 
         ObjectNode requestBody = objectMapper.createObjectNode();
@@ -624,15 +665,14 @@ public class AiHandler {
             message.put("content", prompt);
         }
 
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            HttpPost request = new HttpPost(apiUrl);
-            request.setHeader("Content-Type", "application/json");
-            request.setHeader("Authorization", "Bearer " + TOGETHER_API_KEY);
-            request.setEntity(new StringEntity(objectMapper.writeValueAsString(requestBody), ContentType.APPLICATION_JSON));
+        var request = SimpleRequestBuilder.post(apiUrl)
+                .setHeader("Authorization", "Bearer " + TOGETHER_API_KEY)
+                .setBody(requestBody.toString(), ContentType.APPLICATION_JSON)
+                .build();
 
-            try (ClassicHttpResponse response = client.execute(request)) {
-                String jsonResponse = EntityUtils.toString(response.getEntity());
-                JsonNode responseJson = objectMapper.readTree(jsonResponse);
+        return HttpHandler.executeAsync(request).thenApply(response -> {
+            try {
+                JsonNode responseJson = objectMapper.readTree(HttpHandler.bodyAsString(response));
 
                 // Check for error
                 if (responseJson.has("error")) {
@@ -646,8 +686,10 @@ public class AiHandler {
                 }
 
                 throw new Exception("Invalid response structure from Together API");
+            } catch (Exception e) {
+                throw new CompletionException(e);
             }
-        }
+        });
     }
 
     /**
@@ -714,12 +756,6 @@ public class AiHandler {
                                                String modelName, String iconUrl) {
         if (index >= parts.size()) return;
 
-        try {
-            Thread.sleep(1000); // 1 second delay between parts
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-        }
-
         var continueEmbed = new EmbedBuilder()
                 .setTitle("Continued Answer [Part " + (index + 1) + "]")
                 .setDescription(parts.get(index))
@@ -728,12 +764,13 @@ public class AiHandler {
                 .setTimestamp(Instant.now())
                 .build();
 
-        lastMessage.replyEmbeds(continueEmbed).queue(newMessage -> {
+        // 1 second delay between parts, scheduled instead of slept on the callback thread
+        lastMessage.replyEmbeds(continueEmbed).queueAfter(1, TimeUnit.SECONDS, newMessage -> {
             sendContinuationParts(newMessage, parts, index + 1, modelName, iconUrl);
         });
     }
 
-    private static void handleError(MessageReceivedEvent event, String modelName, Exception error, String userQuestion) {
+    private static void handleError(MessageReceivedEvent event, String modelName, Throwable error, String userQuestion) {
         System.err.println(modelName + " Processing Error: " + error.getMessage());
         error.printStackTrace();
 
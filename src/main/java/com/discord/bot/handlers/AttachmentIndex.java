@@ -0,0 +1,169 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.entities.Message;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.discord.bot.utils.Settings;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Remembers the Discord CDN URL of every media file the bot uploaded, keyed
+ * by the canonical source URL. A repeat request, even from another guild,
+ * can then be fetched back from Discord's CDN instead of going through the
+ * downloader API and the origin again. Entries live until the signed CDN
+ * URL expires. Changes are saved in batches on a background thread.
+ */
+public class AttachmentIndex {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final Path INDEX_FILE = Path.of(Settings.get("ATTACHMENT_INDEX_FILE", "cache/attachments.json"));
+    private static final int MAX_ENTRIES = (int) Settings.getLong("ATTACHMENT_INDEX_MAX_ENTRIES", 5000);
+    // CDN links carry their expiry; without one assume Discord's usual day
+    private static final long DEFAULT_LIFETIME_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final long EXPIRY_MARGIN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    /**
+     * An earlier upload: its CDN URL, size, the cache meta it was sent with,
+     * and when the URL stops working
+     */
+    public record Attachment(String url, long size, String meta, long expiresAt) {}
+
+    private static final Map<String, Attachment> index = new ConcurrentHashMap<>();
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final DebouncedTask saver = new DebouncedTask("ATTACHMENTS", AttachmentIndex::write, 2000);
+
+    static {
+        if (MAX_ENTRIES > 0) load();
+    }
+
+    /**
+     * Finds a still-valid earlier upload for the key
+     */
+    public static Attachment lookup(MediaCache.Key key) {
+        if (MAX_ENTRIES == 0) return null;
+
+        Attachment attachment = index.get(key.value());
+        if (attachment == null || attachment.expiresAt() - EXPIRY_MARGIN_MILLIS < System.currentTimeMillis()) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return attachment;
+    }
+
+    /**
+     * Records the attachment of a message that delivered the media for the
+     * key. Messages with no or several attachments are ignored.
+     */
+    public static void remember(MediaCache.Key key, Message message) {
+        if (MAX_ENTRIES == 0 || key == null || message == null || message.getAttachments().size() != 1) return;
+
+        Message.Attachment attachment = message.getAttachments().get(0);
+        index.put(key.value(), new Attachment(attachment.getUrl(), attachment.getSize(), key.meta(),
+                expiryOf(attachment.getUrl())));
+        saver.request();
+    }
+
+    /**
+     * Drops an entry whose CDN URL no longer works
+     */
+    public static void forget(MediaCache.Key key) {
+        if (index.remove(key.value()) != null) saver.request();
+    }
+
+    /**
+     * Reads the expiry Discord signs into attachment URLs (ex, hex seconds)
+     */
+    private static long expiryOf(String url) {
+        try {
+            String query = URI.create(url).getRawQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    if (param.startsWith("ex=")) {
+                        return Long.parseLong(param.substring(3), 16) * 1000;
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println("[ATTACHMENTS] Cannot read expiry of " + url + ": " + e.getMessage());
+        }
+        return System.currentTimeMillis() + DEFAULT_LIFETIME_MILLIS;
+    }
+
+    private static void load() {
+        if (!Files.exists(INDEX_FILE)) return;
+        try {
+            long now = System.currentTimeMillis();
+            for (JsonNode node : objectMapper.readTree(INDEX_FILE.toFile()).path("entries")) {
+                Attachment attachment = new Attachment(node.path("url").asText(), node.path("size").asLong(),
+                        node.hasNonNull("meta") ? node.get("meta").asText() : null, node.path("expiresAt").asLong());
+                if (attachment.expiresAt() > now) {
+                    index.put(node.path("key").asText(), attachment);
+                }
+            }
+            System.out.println("[ATTACHMENTS] Loaded " + index.size() + " known uploads");
+        } catch (IOException e) {
+            System.err.println("[ATTACHMENTS] Failed to load index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes pending changes now; called on shutdown
+     */
+    public static void flush() {
+        saver.flush();
+    }
+
+    private static void write() {
+        // Expired links are useless; past the cap, drop the ones expiring first
+        long now = System.currentTimeMillis();
+        index.values().removeIf(attachment -> attachment.expiresAt() <= now);
+        while (index.size() > MAX_ENTRIES) {
+            index.entrySet().stream()
+                    .min(Comparator.comparingLong(entry -> entry.getValue().expiresAt()))
+                    .ifPresent(oldest -> index.remove(oldest.getKey(), oldest.getValue()));
+        }
+
+        ObjectNode root = objectMapper.createObjectNode();
+        ArrayNode entries = root.putArray("entries");
+        index.forEach((key, attachment) -> entries.addObject()
+                .put("key", key)
+                .put("url", attachment.url())
+                .put("size", attachment.size())
+                .put("meta", attachment.meta())
+                .put("expiresAt", attachment.expiresAt()));
+
+        try {
+            if (INDEX_FILE.getParent() != null) Files.createDirectories(INDEX_FILE.getParent());
+            Path temp = INDEX_FILE.resolveSibling(INDEX_FILE.getFileName() + ".tmp");
+            objectMapper.writeValue(temp.toFile(), root);
+            Files.move(temp, INDEX_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[ATTACHMENTS] Failed to save index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets entry count and hit rate for the stats command
+     */
+    public static String getStats() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return String.format("Entries: %d/%d, hits: %d/%d (%.1f%%)",
+                index.size(), MAX_ENTRIES, hitCount, total, total > 0 ? hitCount * 100.0 / total : 0.0);
+    }
+}
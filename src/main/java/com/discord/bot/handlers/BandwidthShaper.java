@@ -0,0 +1,232 @@
+package com.discord.bot.handlers;
+
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import com.discord.bot.utils.Settings;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token-bucket shaping for media transfers, so big downloads and uploads
+ * can't take the whole link and starve gateway heartbeats and REST replies.
+ * A share of the link is held back as headroom; the rest is the global rate
+ * all transfers draw from, and each download can be capped further.
+ * <p>
+ * Nothing here sleeps. Downloads are slowed on the HTTP client side by
+ * holding back the receive capacity granted to the connection until the
+ * bytes already received are paid for. Uploads read from disk on JDA's
+ * requester threads, so they are only counted against the global rate,
+ * which makes concurrent downloads yield to them.
+ */
+public class BandwidthShaper {
+
+    private static final long LINK_MBIT = Settings.getLong("BANDWIDTH_LINK_MBIT", 0);
+    private static final long HEADROOM_PERCENT = Math.min(90, Settings.getLong("BANDWIDTH_HEADROOM_PERCENT", 20));
+    private static final long PER_TRANSFER_MBIT = Settings.getLong("BANDWIDTH_PER_DOWNLOAD_MBIT", 0);
+    private static final long BURST_BYTES = Math.max(16, Settings.getLong("BANDWIDTH_BURST_KB", 512)) * 1024;
+
+    // 0 means unlimited
+    private static final long GLOBAL_RATE = toBytesPerSecond(LINK_MBIT) * (100 - HEADROOM_PERCENT) / 100;
+    private static final long PER_TRANSFER_RATE = toBytesPerSecond(PER_TRANSFER_MBIT);
+
+    private static final TokenBucket globalBucket = GLOBAL_RATE > 0 ? new TokenBucket(GLOBAL_RATE, BURST_BYTES) : null;
+
+    private static final AtomicLong bytesMoved = new AtomicLong();
+    private static final AtomicLong throttledNanos = new AtomicLong();
+    private static final AtomicInteger activeTransfers = new AtomicInteger();
+
+    private static final ScheduledExecutorService resumeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bandwidth-shaper");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static long toBytesPerSecond(long mbit) {
+        return mbit * 1_000_000 / 8;
+    }
+
+    /**
+     * A bucket that may go into debt: taking more than it holds returns how
+     * long to wait until the debt is repaid.
+     */
+    private static final class TokenBucket {
+        private final double bytesPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill = System.nanoTime();
+
+        TokenBucket(long bytesPerSecond, long burstBytes) {
+            this.bytesPerNano = bytesPerSecond / 1e9;
+            this.capacity = burstBytes;
+            this.tokens = burstBytes;
+        }
+
+        synchronized long take(long bytes) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerNano);
+            lastRefill = now;
+            tokens -= bytes;
+            return tokens >= 0 ? 0 : (long) (-tokens / bytesPerNano);
+        }
+    }
+
+    /**
+     * The shaping state of one download. Call {@link #received} with every
+     * chunk the connection delivers, hand the connection's capacity channel
+     * through {@link #shape(CapacityChannel)}, and call {@link #close} when
+     * the download ends.
+     */
+    public static final class Throttle {
+        private final TokenBucket bucket = PER_TRANSFER_RATE > 0 ? new TokenBucket(PER_TRANSFER_RATE, BURST_BYTES) : null;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicLong resumeAt = new AtomicLong(System.nanoTime());
+
+        private Throttle() {
+            activeTransfers.incrementAndGet();
+        }
+
+        /**
+         * Accounts for bytes the connection just delivered; further capacity
+         * is held back until the global and per-download rates allow them
+         */
+        public void received(long bytes) {
+            if (bytes <= 0) return;
+            bytesMoved.addAndGet(bytes);
+
+            long wait = Math.max(globalBucket != null ? globalBucket.take(bytes) : 0,
+                    bucket != null ? bucket.take(bytes) : 0);
+            if (wait <= 0) return;
+
+            throttledNanos.addAndGet(wait);
+            long until = System.nanoTime() + wait;
+            resumeAt.accumulateAndGet(until, Math::max);
+        }
+
+        /**
+         * Wraps a connection's capacity channel so capacity freed by the
+         * reader reaches the connection only once the download may go on
+         */
+        public CapacityChannel shape(CapacityChannel channel) {
+            if (globalBucket == null && bucket == null) return channel;
+            return new ShapedCapacityChannel(channel, this);
+        }
+
+        public void close() {
+            if (closed.compareAndSet(false, true)) activeTransfers.decrementAndGet();
+        }
+    }
+
+    /**
+     * Holds back capacity updates while the download is over its rate. Updates
+     * arriving meanwhile are added up and released together.
+     */
+    private static final class ShapedCapacityChannel implements CapacityChannel {
+        private final CapacityChannel target;
+        private final Throttle throttle;
+        private final AtomicInteger pending = new AtomicInteger();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        ShapedCapacityChannel(CapacityChannel target, Throttle throttle) {
+            this.target = target;
+            this.throttle = throttle;
+        }
+
+        @Override
+        public void update(int increment) throws IOException {
+            if (increment <= 0) return;
+            pending.addAndGet(increment);
+            release();
+        }
+
+        private void release() throws IOException {
+            if (scheduled.get()) return;
+
+            long wait = throttle.resumeAt.get() - System.nanoTime();
+            if (wait <= 0 || throttle.closed.get()) {
+                int increment = pending.getAndSet(0);
+                if (increment > 0) target.update(increment);
+                return;
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                resumeScheduler.schedule(() -> {
+                    scheduled.set(false);
+                    try {
+                        release();
+                    } catch (IOException e) {
+                        // The connection is gone; its reader sees the failure
+                    }
+                }, wait, TimeUnit.NANOSECONDS);
+            }
+        }
+    }
+
+    /**
+     * Starts shaping a new download
+     */
+    public static Throttle newThrottle() {
+        return new Throttle();
+    }
+
+    /**
+     * Wraps an upload stream so the bytes read from it count against the
+     * global rate, without ever blocking the reading thread
+     */
+    public static InputStream shape(InputStream in) {
+        return new CountedInputStream(in);
+    }
+
+    private static final class CountedInputStream extends FilterInputStream {
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        CountedInputStream(InputStream in) {
+            super(in);
+            activeTransfers.incrementAndGet();
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) count(1);
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) count(read);
+            return read;
+        }
+
+        private void count(int bytes) {
+            bytesMoved.addAndGet(bytes);
+            if (globalBucket != null) globalBucket.take(bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed.compareAndSet(false, true)) activeTransfers.decrementAndGet();
+            super.close();
+        }
+    }
+
+    /**
+     * Gets configured rates and transfer counters for the stats command
+     */
+    public static String getStats() {
+        String global = GLOBAL_RATE > 0
+                ? String.format("%d Mbit/s (%d%% of %d Mbit/s kept as headroom)",
+                        GLOBAL_RATE * 8 / 1_000_000, HEADROOM_PERCENT, LINK_MBIT)
+                : "unlimited";
+        String perTransfer = PER_TRANSFER_RATE > 0 ? PER_TRANSFER_MBIT + " Mbit/s" : "unlimited";
+        return String.format("Global: %s, per download: %s\nActive: %d, moved: %.1f MB, throttled: %.1f s",
+                global, perTransfer, activeTransfers.get(), bytesMoved.get() / (1024.0 * 1024.0),
+                throttledNanos.get() / 1e9);
+    }
+}
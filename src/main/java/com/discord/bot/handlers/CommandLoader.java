@@ -1,53 +1,182 @@
 package com.discord.bot.handlers;
 
 import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.interactions.commands.Command;
 import net.dv8tion.jda.api.interactions.commands.build.CommandData;
-import com.discord.bot.commands.*;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.requests.restaction.CommandListUpdateAction;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.discord.bot.utils.Settings;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
 import java.util.List;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
 
+/**
+ * Registers the slash commands with Discord, but only when they changed.
+ * Discord's current list is fetched on every start; the push is skipped
+ * only when the definitions hash to what was last pushed and Discord still
+ * has the exact commands (ids and versions) that push created. Commands
+ * deleted or edited outside the bot are therefore pushed again. Hashes are
+ * kept per application and scope. With COMMAND_DEV_GUILDS set the commands
+ * are pushed to those guilds instead, where changes show up immediately;
+ * global commands are left alone there, and a warning says so.
+ */
 public class CommandLoader {
 
+    private static final ObjectMapper canonicalMapper = new ObjectMapper()
+            .enable(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+
+    private static final Path HASH_FILE = Path.of(Settings.get("COMMAND_HASH_FILE", "cache/commands.hash"));
+    private static final String DEV_GUILDS = Settings.get("COMMAND_DEV_GUILDS", "");
+
     public static void loadCommands(JDA client) {
         try {
-            List<CommandData> commands = new ArrayList<>();
-
-            // Load all commands
-            commands.add(Ping.getCommandData());
-            commands.add(Help.getCommandData());
-            commands.add(Info.getCommandData());
-            commands.add(Avatar.getCommandData());
-            commands.add(Banner.getCommandData());
-            commands.add(Userinfo.getCommandData());
-            commands.add(Serverinfo.getCommandData());
-            commands.add(Ban.getCommandData());
-            commands.add(Kick.getCommandData());
-            commands.add(Clean.getCommandData());
-            commands.add(Adzan.getCommandData());
-            commands.add(Aichat.getCommandData());
-            commands.add(Endchat.getCommandData());
-            commands.add(Downloader.getCommandData());
-            commands.add(ListRoles.getCommandData());
-            commands.add(Mute.getCommandData());
-            commands.add(Unmute.getCommandData());
-            commands.add(Say.getCommandData());
-            commands.add(Timeout.getCommandData());
-            commands.add(Untimeout.getCommandData());
-            commands.add(Unban.getCommandData());
-            commands.add(Retstart.getCommandData());
-            commands.add(Setstatus.getCommandData());
-            commands.add(Serverstats.getCommandData());
-            commands.add(Toggleembed.getCommandData());
-
-            // Register commands with Discord
-            client.updateCommands().addCommands(commands).queue();
-
-            System.out.println("Commands berhasil dimuat dan didaftarkan. Total: " + commands.size() + " commands");
+            List<CommandData> commands = CommandRegistry.getCommandData();
+            String hash = hashOf(commands);
+            String applicationId = client.getSelfUser().getApplicationId();
+
+            if (DEV_GUILDS.isEmpty()) {
+                sync(commands, hash, applicationId + " global", client::retrieveCommands, client::updateCommands);
+                return;
+            }
+
+            for (String guildId : DEV_GUILDS.split(",")) {
+                Guild guild = client.getGuildById(guildId.trim());
+                if (guild == null) {
+                    System.err.println("[COMMANDS] Dev guild " + guildId.trim() + " not found, skipped");
+                    continue;
+                }
+                sync(commands, hash, applicationId + " guild " + guild.getId(), guild::retrieveCommands,
+                        guild::updateCommands);
+            }
 
+            // The global commands would show up twice next to the dev guild copies
+            client.retrieveCommands().queue(global -> {
+                if (!global.isEmpty()) {
+                    System.err.println("[COMMANDS] " + global.size() + " global commands are still registered and"
+                            + " show up next to the dev guild ones; they are not removed automatically,"
+                            + " run DeleteCommands to clear them");
+                }
+            }, error -> {});
         } catch (Exception e) {
             System.err.println("Error loading commands: " + e.getMessage());
             e.printStackTrace();
         }
     }
+
+    /**
+     * Forgets the last push of an application's global commands, so the next
+     * start pushes them again. Call after deleting them by hand.
+     */
+    public static void invalidate(String applicationId) {
+        removeHash(applicationId + " global");
+    }
+
+    /**
+     * Pushes the commands to one scope unless the last push matches them
+     * and Discord still has what that push registered
+     */
+    private static void sync(List<CommandData> commands, String hash, String scope,
+                             Supplier<RestAction<List<Command>>> retrieve,
+                             Supplier<CommandListUpdateAction> update) {
+        retrieve.get().queue(live -> {
+            if ((hash + " " + versionsOf(live)).equals(readHash(scope))) {
+                System.out.println("[COMMANDS] " + commands.size() + " commands unchanged (" + scope + "), skipping update");
+            } else {
+                push(commands, hash, scope, update);
+            }
+        }, error -> {
+            System.err.println("[COMMANDS] Failed to retrieve commands (" + scope + "): " + error.getMessage());
+            push(commands, hash, scope, update);
+        });
+    }
+
+    private static void push(List<CommandData> commands, String hash, String scope,
+                             Supplier<CommandListUpdateAction> update) {
+        update.get().addCommands(commands).queue(registered -> {
+            if (!hash.isEmpty()) writeHash(scope, hash + " " + versionsOf(registered));
+            System.out.println("Commands berhasil dimuat dan didaftarkan. Total: " + registered.size() + " commands (" + scope + ")");
+        }, error -> System.err.println("[COMMANDS] Failed to update commands (" + scope + "): " + error.getMessage()));
+    }
+
+    /**
+     * Identifies the commands Discord has by id and version; any edit or
+     * re-creation changes one of them
+     */
+    private static String versionsOf(List<Command> commands) {
+        return commands.stream()
+                .map(command -> command.getId() + ":" + command.getVersion())
+                .sorted()
+                .collect(Collectors.joining(","));
+    }
+
+    /**
+     * Hashes the command definitions independent of command and key order
+     */
+    private static String hashOf(List<CommandData> commands) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            List<CommandData> sorted = commands.stream().sorted(Comparator.comparing(CommandData::getName)).toList();
+            for (CommandData command : sorted) {
+                Object tree = canonicalMapper.readValue(command.toData().toJson(), Object.class);
+                digest.update(canonicalMapper.writeValueAsBytes(tree));
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (IOException | NoSuchAlgorithmException e) {
+            // An unhashable list never matches, so it is always pushed
+            System.err.println("[COMMANDS] Failed to hash commands: " + e.getMessage());
+            return "";
+        }
+    }
+
+    private static String readHash(String scope) {
+        try {
+            if (!Files.exists(HASH_FILE)) return null;
+            for (String line : Files.readAllLines(HASH_FILE, StandardCharsets.UTF_8)) {
+                if (line.startsWith(scope + "=")) return line.substring(scope.length() + 1);
+            }
+        } catch (IOException e) {
+            System.err.println("[COMMANDS] Failed to read " + HASH_FILE + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    private static synchronized void writeHash(String scope, String hash) {
+        try {
+            List<String> lines = Files.exists(HASH_FILE)
+                    ? Files.readAllLines(HASH_FILE, StandardCharsets.UTF_8).stream()
+                            .filter(line -> !line.startsWith(scope + "="))
+                            .collect(Collectors.toCollection(ArrayList::new))
+                    : new ArrayList<>();
+            lines.add(scope + "=" + hash);
+            if (HASH_FILE.getParent() != null) Files.createDirectories(HASH_FILE.getParent());
+            Files.write(HASH_FILE, lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("[COMMANDS] Failed to write " + HASH_FILE + ": " + e.getMessage());
+        }
+    }
+
+    private static synchronized void removeHash(String scope) {
+        try {
+            if (!Files.exists(HASH_FILE)) return;
+            List<String> lines = Files.readAllLines(HASH_FILE, StandardCharsets.UTF_8).stream()
+                    .filter(line -> !line.startsWith(scope + "="))
+                    .toList();
+            Files.write(HASH_FILE, lines, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            System.err.println("[COMMANDS] Failed to write " + HASH_FILE + ": " + e.getMessage());
+        }
+    }
 }
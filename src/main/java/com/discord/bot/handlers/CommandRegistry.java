@@ -0,0 +1,223 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
+import net.dv8tion.jda.api.interactions.commands.build.CommandData;
+import com.discord.bot.commands.*;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * The one list of slash commands. Each command is registered once with its
+ * definition, handler and execution policy; slash dispatch is a map lookup
+ * and the command registration reads the definitions from here.
+ */
+public class CommandRegistry {
+
+    /**
+     * How a command runs when it is invoked
+     */
+    public enum Policy {
+        /** On the event thread; the handler replies or defers itself */
+        SYNC,
+        /** On the event thread, after the registry has deferred the reply */
+        DEFERRED,
+        /** On the command pool, for handlers that block on I/O */
+        ASYNC
+    }
+
+    /**
+     * A registered command with its invocation counters
+     */
+    public static final class Entry {
+        private final CommandData data;
+        private final Consumer<SlashCommandInteractionEvent> handler;
+        private final Policy policy;
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        private Entry(CommandData data, Consumer<SlashCommandInteractionEvent> handler, Policy policy) {
+            this.data = data;
+            this.handler = handler;
+            this.policy = policy;
+        }
+
+        public String name() {
+            return data.getName();
+        }
+
+        public CommandData data() {
+            return data;
+        }
+
+        public Policy policy() {
+            return policy;
+        }
+
+        private void record(long nanos, boolean failed) {
+            calls.incrementAndGet();
+            if (failed) errors.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        private double averageMillis() {
+            long count = calls.get();
+            return count > 0 ? totalNanos.get() / 1_000_000.0 / count : 0;
+        }
+    }
+
+    // Unbounded so an async command never waits past the 3 second
+    // interaction deadline behind other slow ones
+    private static final ExecutorService COMMAND_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "slash-command");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Map<String, Entry> commands;
+
+    static {
+        Map<String, Entry> registry = new LinkedHashMap<>();
+        register(registry, Ping::getCommandData, Ping::execute, Policy.DEFERRED);
+        register(registry, Help::getCommandData, Help::execute, Policy.SYNC);
+        register(registry, Info::getCommandData, Info::execute, Policy.SYNC);
+        register(registry, Avatar::getCommandData, Avatar::execute, Policy.SYNC);
+        register(registry, Banner::getCommandData, Banner::execute, Policy.SYNC);
+        register(registry, Userinfo::getCommandData, Userinfo::execute, Policy.SYNC);
+        register(registry, Serverinfo::getCommandData, Serverinfo::execute, Policy.SYNC);
+        register(registry, Ban::getCommandData, Ban::execute, Policy.SYNC);
+        register(registry, Kick::getCommandData, Kick::execute, Policy.SYNC);
+        register(registry, Clean::getCommandData, Clean::execute, Policy.SYNC);
+        register(registry, Adzan::getCommandData, Adzan::execute, Policy.SYNC);
+        register(registry, Aichat::getCommandData, Aichat::execute, Policy.ASYNC);
+        register(registry, Endchat::getCommandData, Endchat::execute, Policy.SYNC);
+        register(registry, Downloader::getCommandData, Downloader::execute, Policy.SYNC);
+        register(registry, ListRoles::getCommandData, ListRoles::execute, Policy.SYNC);
+        register(registry, Mute::getCommandData, Mute::execute, Policy.SYNC);
+        register(registry, Unmute::getCommandData, Unmute::execute, Policy.SYNC);
+        register(registry, Say::getCommandData, Say::execute, Policy.ASYNC);
+        register(registry, Timeout::getCommandData, Timeout::execute, Policy.SYNC);
+        register(registry, Untimeout::getCommandData, Untimeout::execute, Policy.SYNC);
+        register(registry, Unban::getCommandData, Unban::execute, Policy.SYNC);
+        register(registry, Retstart::getCommandData, Retstart::execute, Policy.SYNC);
+        register(registry, Setstatus::getCommandData, Setstatus::execute, Policy.SYNC);
+        register(registry, Serverstats::getCommandData, Serverstats::execute, Policy.SYNC);
+        register(registry, Toggleembed::getCommandData, Toggleembed::execute, Policy.SYNC);
+        commands = Collections.unmodifiableMap(registry);
+    }
+
+    private static void register(Map<String, Entry> registry, Supplier<? extends CommandData> data,
+                                 Consumer<SlashCommandInteractionEvent> handler, Policy policy) {
+        Entry entry = new Entry(data.get(), handler, policy);
+        if (registry.putIfAbsent(entry.name(), entry) != null) {
+            throw new IllegalStateException("Duplicate command " + entry.name());
+        }
+    }
+
+    /**
+     * Gets every registered command
+     */
+    public static Collection<Entry> getCommands() {
+        return commands.values();
+    }
+
+    /**
+     * Gets the definitions of every registered command, in registration order
+     */
+    public static List<CommandData> getCommandData() {
+        List<CommandData> data = new ArrayList<>(commands.size());
+        commands.values().forEach(entry -> data.add(entry.data()));
+        return data;
+    }
+
+    /**
+     * Runs the handler of a slash command according to its policy, unless
+     * the rate limiter refuses it. Returns false when no command has that name.
+     */
+    public static boolean dispatch(SlashCommandInteractionEvent event) {
+        Entry entry = commands.get(event.getName());
+        if (entry == null) return false;
+
+        long wait = RateLimiter.tryAcquire("/" + entry.name(), event.isFromGuild() ? event.getGuild().getIdLong() : RateLimiter.NO_GUILD,
+                event.getChannelIdLong(), event.getUser().getIdLong());
+        if (wait > 0) {
+            event.reply("⏳ Too many requests, try again in " + TimeUnit.MILLISECONDS.toSeconds(wait + 999) + "s.")
+                    .setEphemeral(true).queue();
+            return true;
+        }
+
+        switch (entry.policy()) {
+            case SYNC -> run(entry, event);
+            case DEFERRED -> {
+                event.deferReply().queue();
+                run(entry, event);
+            }
+            case ASYNC -> {
+                try {
+                    COMMAND_EXECUTOR.execute(() -> run(entry, event));
+                } catch (RejectedExecutionException e) {
+                    replyError(event);
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void run(Entry entry, SlashCommandInteractionEvent event) {
+        long start = System.nanoTime();
+        boolean failed = false;
+        StallWatchdog.Section section = StallWatchdog.enter("/" + entry.name());
+        try {
+            entry.handler.accept(event);
+        } catch (Exception error) {
+            failed = true;
+            System.err.println("Error saat mengeksekusi command " + entry.name() + ": " + error.getMessage());
+            replyError(event);
+        } finally {
+            section.close();
+            entry.record(System.nanoTime() - start, failed);
+        }
+    }
+
+    private static void replyError(SlashCommandInteractionEvent event) {
+        if (event.isAcknowledged()) {
+            event.getHook().editOriginal("Terjadi kesalahan saat menjalankan perintah!").queue();
+        } else {
+            event.reply("Terjadi kesalahan saat menjalankan perintah!").setEphemeral(true).queue();
+        }
+    }
+
+    /**
+     * Gets the slowest commands by average handler time for the stats command
+     */
+    public static String getStats() {
+        long totalCalls = commands.values().stream().mapToLong(entry -> entry.calls.get()).sum();
+        if (totalCalls == 0) return "No commands run yet";
+
+        String slowest = commands.values().stream()
+                .filter(entry -> entry.calls.get() > 0)
+                .sorted(Comparator.comparingDouble(Entry::averageMillis).reversed())
+                .limit(3)
+                .map(entry -> String.format("/%s %.1fms avg, %dms max (%d runs%s)", entry.name(),
+                        entry.averageMillis(), TimeUnit.NANOSECONDS.toMillis(entry.maxNanos.get()),
+                        entry.calls.get(), entry.errors.get() > 0 ? ", " + entry.errors.get() + " failed" : ""))
+                .collect(Collectors.joining("\n"));
+        return "Runs: " + totalCalls + "\n" + slowest;
+    }
+}
@@ -0,0 +1,56 @@
+package com.discord.bot.handlers;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Coalesces repeated requests to run a task, such as rewriting an index
+ * file, into one run on a background thread shortly after the first request.
+ * Requests made while the task runs schedule one more run.
+ */
+final class DebouncedTask {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "index-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String name;
+    private final Runnable task;
+    private final long delayMillis;
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    DebouncedTask(String name, Runnable task, long delayMillis) {
+        this.name = name;
+        this.task = task;
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * Runs the task after the delay, unless a run is already pending
+     */
+    void request() {
+        if (scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this::run, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Runs a pending task now, on the calling thread; used at shutdown
+     */
+    void flush() {
+        if (scheduled.get()) run();
+    }
+
+    private synchronized void run() {
+        scheduled.set(false);
+        try {
+            task.run();
+        } catch (RuntimeException e) {
+            System.err.println("[" + name + "] Background write failed: " + e.getMessage());
+        }
+    }
+}
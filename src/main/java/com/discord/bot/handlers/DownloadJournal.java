@@ -0,0 +1,406 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import net.dv8tion.jda.api.utils.FileUpload;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.discord.bot.utils.Settings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk journal of media downloads in progress. Each job records its
+ * request, the resolved media URL and how many bytes are safely on disk,
+ * next to a partial file. Jobs cut off by a restart or crash are resumed
+ * with Range requests on the next start and delivered to their channel.
+ * A finished part file is handed to the media cache instead of being
+ * written there a second time.
+ */
+public class DownloadJournal {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final boolean ENABLED = Settings.getBoolean("DOWNLOAD_JOURNAL_ENABLED", true);
+    private static final Path JOURNAL_DIR = Path.of(Settings.get("DOWNLOAD_JOURNAL_DIR", "cache/jobs"));
+    private static final long MAX_AGE_MILLIS = TimeUnit.HOURS.toMillis(Settings.getLong("DOWNLOAD_JOURNAL_MAX_AGE_HOURS", 6));
+    private static final long CHECKPOINT_BYTES = 4 * 1024 * 1024;
+
+    // Jobs with a download running, checkpointed once more on shutdown
+    private static final Map<String, Job> activeJobs = new ConcurrentHashMap<>();
+    private static volatile boolean shuttingDown;
+
+    /**
+     * One journaled download. Bytes read from the media stream are written to
+     * the part file; every few megabytes they are flushed to disk and the
+     * journal entry updated on the media I/O executor, so the reading thread
+     * never waits for the disk to sync.
+     */
+    public static class Job {
+        private final String id;
+        private final String channelId;
+        private final String content;
+        private final String url;
+        private final String fileName;
+        private final long maxBytes;
+        private final String cacheKey;
+        private final String cacheMeta;
+        private final long createdAt;
+
+        private FileChannel part;
+        private long contentLength = -1;
+        private long written;
+        private long checkpointed;
+        private boolean checkpointPending;
+        private boolean failed;
+        private boolean closed;
+
+        private Job(String id, String channelId, String content, String url, String fileName, long maxBytes,
+                    String cacheKey, String cacheMeta, long createdAt) {
+            this.id = id;
+            this.channelId = channelId;
+            this.content = content;
+            this.url = url;
+            this.fileName = fileName;
+            this.maxBytes = maxBytes;
+            this.cacheKey = cacheKey;
+            this.cacheMeta = cacheMeta;
+            this.createdAt = createdAt;
+        }
+
+        private Path entryFile() { return JOURNAL_DIR.resolve(id + ".json"); }
+        private Path partFile() { return JOURNAL_DIR.resolve(id + ".part"); }
+
+        /**
+         * Starts a new stream at offset, dropping anything written after it.
+         * Total is the full media size, or -1 when unknown.
+         */
+        synchronized void begin(long offset, long total) {
+            if (closed) return;
+            try {
+                if (part == null) {
+                    part = FileChannel.open(partFile(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                }
+                part.truncate(offset);
+                part.position(offset);
+                written = offset;
+                contentLength = total;
+                failed = false;
+                checkpoint();
+            } catch (IOException e) {
+                System.err.println("[JOURNAL] Cannot open " + partFile() + ": " + e.getMessage());
+                failed = true;
+            }
+        }
+
+        /**
+         * Appends bytes to the part file. Passing maxBytes drops the job and
+         * its part file and fails the stream, so a body without a usable
+         * Content-Length can't fill the disk; other write errors only stop
+         * journaling.
+         */
+        synchronized void write(byte[] data, int offset, int length) throws MediaDownloader.MediaTooLargeException {
+            if (closed || failed || part == null || length <= 0) return;
+            if (written + length > maxBytes) {
+                System.err.println("[JOURNAL] Job " + id + " passed " + maxBytes + " bytes, dropped");
+                complete();
+                throw new MediaDownloader.MediaTooLargeException(-1, maxBytes);
+            }
+            try {
+                ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+                while (buffer.hasRemaining()) {
+                    part.write(buffer);
+                }
+                written += length;
+                if (written - checkpointed >= CHECKPOINT_BYTES && !checkpointPending) {
+                    checkpointPending = true;
+                    MediaSpool.IO_EXECUTOR.execute(this::checkpointInBackground);
+                }
+            } catch (IOException e) {
+                System.err.println("[JOURNAL] Write failed for job " + id + ": " + e.getMessage());
+                failed = true;
+            }
+        }
+
+        /**
+         * Flushes the part file and records how much of it is safe to resume from
+         */
+        private void checkpoint() throws IOException {
+            if (part != null) part.force(false);
+            checkpointed = written;
+            save(this);
+        }
+
+        /**
+         * Syncs the part file without holding the job, so writes go on
+         * meanwhile, then records what was written before the sync
+         */
+        private void checkpointInBackground() {
+            FileChannel channel;
+            long safe;
+            synchronized (this) {
+                checkpointPending = false;
+                if (closed || failed) return;
+                channel = part;
+                safe = written;
+            }
+            try {
+                channel.force(false);
+                synchronized (this) {
+                    if (closed || failed || safe <= checkpointed) return;
+                    checkpointed = safe;
+                    save(this);
+                }
+            } catch (ClosedChannelException e) {
+                // The job ended while the sync was queued
+            } catch (IOException e) {
+                System.err.println("[JOURNAL] Checkpoint failed for job " + id + ": " + e.getMessage());
+            }
+        }
+
+        private synchronized void checkpointQuietly() {
+            if (closed || failed) return;
+            try {
+                checkpoint();
+            } catch (IOException e) {
+                System.err.println("[JOURNAL] Checkpoint failed for job " + id + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Removes the job once its media was delivered
+         */
+        public synchronized void complete() {
+            if (closed) return;
+            closed = true;
+            activeJobs.remove(id);
+            try {
+                if (part != null) part.close();
+                Files.deleteIfExists(partFile());
+                Files.deleteIfExists(entryFile());
+            } catch (IOException e) {
+                System.err.println("[JOURNAL] Failed to remove job " + id + ": " + e.getMessage());
+            }
+        }
+
+        /**
+         * Ends a delivered job and hands over its part file, which the caller
+         * then owns. Returns null, removing the job as usual, when the part
+         * file doesn't hold the whole download.
+         */
+        public synchronized Path release() {
+            if (closed) return null;
+            if (failed || part == null || (contentLength >= 0 && written != contentLength)) {
+                complete();
+                return null;
+            }
+
+            closed = true;
+            activeJobs.remove(id);
+            try {
+                part.close();
+                Files.deleteIfExists(entryFile());
+                return partFile();
+            } catch (IOException e) {
+                System.err.println("[JOURNAL] Failed to release job " + id + ": " + e.getMessage());
+                return null;
+            }
+        }
+
+        /**
+         * Drops a failed job, unless it failed because the bot is shutting
+         * down, in which case it stays on disk to be resumed
+         */
+        public void discard() {
+            if (shuttingDown) {
+                checkpointQuietly();
+                return;
+            }
+            complete();
+        }
+
+        /**
+         * Wraps the finished part file for a Discord upload
+         */
+        private FileUpload toFileUpload() {
+            return FileUpload.fromStreamSupplier(fileName, () -> {
+                try {
+                    return BandwidthShaper.shape(Files.newInputStream(partFile()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    /**
+     * Records a new download. Returns null when journaling is off or there is
+     * no channel to deliver a resumed download to.
+     */
+    public static Job start(String channelId, String content, String url, String fileName, long maxBytes,
+                            MediaCache.Key cacheKey) {
+        if (!ENABLED || channelId == null || shuttingDown) return null;
+        try {
+            Files.createDirectories(JOURNAL_DIR);
+        } catch (IOException e) {
+            System.err.println("[JOURNAL] Cannot create " + JOURNAL_DIR + ": " + e.getMessage());
+            return null;
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), channelId, content, url, fileName, maxBytes,
+                cacheKey != null ? cacheKey.value() : null, cacheKey != null ? cacheKey.meta() : null,
+                System.currentTimeMillis());
+        activeJobs.put(job.id, job);
+        return job;
+    }
+
+    /**
+     * Checkpoints running jobs and keeps them from being discarded as their
+     * downloads are cut off. Call before the HTTP client shuts down.
+     */
+    public static void shutdown() {
+        shuttingDown = true;
+        activeJobs.values().forEach(Job::checkpointQuietly);
+    }
+
+    private static void save(Job job) throws IOException {
+        ObjectNode root = objectMapper.createObjectNode()
+                .put("channelId", job.channelId)
+                .put("content", job.content)
+                .put("url", job.url)
+                .put("fileName", job.fileName)
+                .put("maxBytes", job.maxBytes)
+                .put("cacheKey", job.cacheKey)
+                .put("cacheMeta", job.cacheMeta)
+                .put("createdAt", job.createdAt)
+                .put("contentLength", job.contentLength)
+                .put("bytesFetched", job.checkpointed);
+
+        Path temp = JOURNAL_DIR.resolve(job.id + ".json.tmp");
+        objectMapper.writeValue(temp.toFile(), root);
+        Files.move(temp, job.entryFile(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Job load(Path entryFile) throws IOException {
+        JsonNode root = objectMapper.readTree(entryFile.toFile());
+        String fileName = entryFile.getFileName().toString();
+        Job job = new Job(fileName.substring(0, fileName.length() - ".json".length()),
+                root.path("channelId").asText(null), root.path("content").asText(""),
+                root.path("url").asText(null), root.path("fileName").asText("media.mp4"),
+                root.path("maxBytes").asLong(), root.path("cacheKey").asText(null),
+                root.path("cacheMeta").asText(null), root.path("createdAt").asLong());
+        job.contentLength = root.path("contentLength").asLong(-1);
+        job.checkpointed = root.path("bytesFetched").asLong();
+        return job;
+    }
+
+    /**
+     * Resumes every journaled job on a background thread, one at a time.
+     * Call once JDA is ready so the channels can be found.
+     */
+    public static void resumeAll(JDA jda) {
+        if (!ENABLED || !Files.isDirectory(JOURNAL_DIR)) return;
+
+        List<Job> jobs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(JOURNAL_DIR)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(".json")) {
+                    try {
+                        jobs.add(load(file));
+                    } catch (IOException e) {
+                        System.err.println("[JOURNAL] Dropping unreadable job " + name + ": " + e.getMessage());
+                        Files.deleteIfExists(file);
+                    }
+                } else if (name.endsWith(".part") && !Files.exists(JOURNAL_DIR.resolve(name.replace(".part", ".json")))) {
+                    Files.deleteIfExists(file);
+                } else if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("[JOURNAL] Cannot read " + JOURNAL_DIR + ": " + e.getMessage());
+            return;
+        }
+        if (jobs.isEmpty()) return;
+
+        System.out.println("[JOURNAL] Resuming " + jobs.size() + " interrupted download(s)");
+        Thread resumer = new Thread(() -> jobs.forEach(job -> resume(jda, job)), "download-resume");
+        resumer.setDaemon(true);
+        resumer.start();
+    }
+
+    /**
+     * Fetches the rest of a job from where its last checkpoint left off and
+     * sends it. Runs on the resume thread, so it may block.
+     */
+    private static void resume(JDA jda, Job job) {
+        MessageChannel channel = job.channelId != null ? jda.getChannelById(MessageChannel.class, job.channelId) : null;
+        if (channel == null || job.url == null || System.currentTimeMillis() - job.createdAt > MAX_AGE_MILLIS) {
+            System.out.println("[JOURNAL] Dropping job " + job.id + " (expired or channel gone)");
+            job.complete();
+            return;
+        }
+
+        activeJobs.put(job.id, job);
+        try {
+            long offset = job.checkpointed;
+            if (job.contentLength >= 0 && offset >= job.contentLength) {
+                // Everything arrived before the restart, only the upload is left
+                job.begin(offset, job.contentLength);
+            } else {
+                try (MediaDownloader.MediaStream media = MediaDownloader.open(job.url, offset).join()) {
+                    // 206 continues the part file; anything else means the server sent it all again
+                    boolean partial = media.getStatus() == 206 && offset > 0;
+                    long start = partial ? offset : 0;
+                    long total = media.getContentLength() >= 0 ? start + media.getContentLength() : -1;
+                    if (total > job.maxBytes) {
+                        throw new MediaDownloader.MediaTooLargeException(total, job.maxBytes);
+                    }
+
+                    media.journalTo(job, start, total);
+                    try (InputStream body = media.getBody(); OutputStream sink = OutputStream.nullOutputStream()) {
+                        body.transferTo(sink);
+                    }
+                    System.out.println("[JOURNAL] Job " + job.id + " resumed from byte " + start);
+                }
+            }
+
+            synchronized (job) {
+                if (job.failed || job.written > job.maxBytes
+                        || (job.contentLength >= 0 && job.written != job.contentLength)) {
+                    throw new IOException("Resumed download is incomplete");
+                }
+                job.part.force(false);
+            }
+
+            MediaReply.toChannel(channel).send(job.content, List.of(job.toFileUpload())).submit().join();
+            if (job.cacheKey != null) {
+                Path part = job.release();
+                if (part != null) MediaCache.adopt(new MediaCache.Key(job.cacheKey, job.cacheMeta), part);
+            }
+            job.complete();
+        } catch (Exception e) {
+            System.err.println("[JOURNAL] Could not resume job " + job.id + ": " + HttpHandler.rootCause(e).getMessage());
+            job.discard();
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import com.discord.bot.utils.Settings;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Runs download commands under a global concurrency cap. Waiting jobs are
+ * served round-robin across guilds, then across users within a guild, so
+ * one busy user or server can't starve everyone else. A job holds its slot
+ * until the future returned by its task completes.
+ */
+public class DownloadScheduler {
+
+    private static final int MAX_CONCURRENT = Settings.getInt("DOWNLOAD_MAX_CONCURRENT", 4, 1);
+    private static final int MAX_QUEUED_PER_USER = Settings.getInt("DOWNLOAD_MAX_QUEUED_PER_USER", 5, 1);
+    private static final long NOTICE_DELAY_SECONDS = 3;
+
+    private static final class Job {
+        final String guildId;
+        final String userId;
+        final MessageChannel channel;
+        final Supplier<CompletableFuture<?>> task;
+        final long queuedAt = System.currentTimeMillis();
+        boolean started;
+        Message notice;
+
+        Job(String guildId, String userId, MessageChannel channel, Supplier<CompletableFuture<?>> task) {
+            this.guildId = guildId;
+            this.userId = userId;
+            this.channel = channel;
+            this.task = task;
+        }
+    }
+
+    // Waiting jobs by guild, then user; all state below is guarded by the class lock
+    private static final Map<String, Map<String, Deque<Job>>> queues = new HashMap<>();
+    private static final Deque<String> guildRotation = new ArrayDeque<>();
+    private static final Map<String, Deque<String>> userRotation = new HashMap<>();
+    private static int active;
+    private static int queued;
+
+    private static long completed;
+    private static long rejected;
+    private static long started;
+    private static long totalWaitMillis;
+    private static long maxWaitMillis;
+
+    // Jobs start here, never on the thread that completed the previous job's
+    // future, which is the HTTP I/O reactor or JDA's callback pool
+    private static final ExecutorService jobExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "download-job");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final ScheduledExecutorService noticeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "download-queue-notice");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Queues a download command for the message author. Returns false, after
+     * telling the user, when they already have too many downloads waiting.
+     */
+    public static boolean submit(MessageReceivedEvent event, Supplier<CompletableFuture<?>> task) {
+        String guildId = event.isFromGuild() ? event.getGuild().getId() : "dm";
+        return submit(guildId, event.getAuthor().getId(), event.getChannel(), task);
+    }
+
+    /**
+     * Queues a download task for a user in a guild ("dm" outside guilds).
+     * Queue notices are posted in the channel when one is given.
+     */
+    public static boolean submit(String guildId, String userId, MessageChannel channel,
+                                 Supplier<CompletableFuture<?>> task) {
+        Job job = new Job(guildId, userId, channel, task);
+
+        synchronized (DownloadScheduler.class) {
+            Deque<Job> userQueue = queues.computeIfAbsent(guildId, k -> new LinkedHashMap<>())
+                    .computeIfAbsent(userId, k -> new ArrayDeque<>());
+            if (userQueue.size() >= MAX_QUEUED_PER_USER) {
+                rejected++;
+                if (channel != null) {
+                    channel.sendMessage("⏳ <@" + userId + "> you already have " + userQueue.size()
+                                    + " downloads waiting, please try again shortly.")
+                            .setAllowedMentions(List.of())
+                            .queue(message -> message.delete().queueAfter(5, TimeUnit.SECONDS, null, t -> {}));
+                }
+                return false;
+            }
+
+            if (userQueue.isEmpty()) {
+                Deque<String> users = userRotation.computeIfAbsent(guildId, k -> new ArrayDeque<>());
+                if (users.isEmpty()) guildRotation.addLast(guildId);
+                users.addLast(userId);
+            }
+            userQueue.addLast(job);
+            queued++;
+        }
+
+        dispatch();
+
+        if (channel != null) {
+            noticeScheduler.schedule(() -> postNotice(job), NOTICE_DELAY_SECONDS, TimeUnit.SECONDS);
+        }
+        return true;
+    }
+
+    /**
+     * Starts waiting jobs on the job executor while there are free slots
+     */
+    private static void dispatch() {
+        List<Job> ready = new ArrayList<>();
+        synchronized (DownloadScheduler.class) {
+            while (active < MAX_CONCURRENT && queued > 0) {
+                Job job = next();
+                job.started = true;
+                active++;
+                queued--;
+                started++;
+
+                long wait = System.currentTimeMillis() - job.queuedAt;
+                totalWaitMillis += wait;
+                maxWaitMillis = Math.max(maxWaitMillis, wait);
+                ready.add(job);
+            }
+        }
+        ready.forEach(job -> jobExecutor.execute(() -> run(job)));
+    }
+
+    /**
+     * Takes the next job in round-robin order. Caller holds the class lock.
+     */
+    private static Job next() {
+        String guildId = guildRotation.pollFirst();
+        Deque<String> users = userRotation.get(guildId);
+        String userId = users.pollFirst();
+
+        Map<String, Deque<Job>> guildQueues = queues.get(guildId);
+        Deque<Job> userQueue = guildQueues.get(userId);
+        Job job = userQueue.pollFirst();
+
+        if (!userQueue.isEmpty()) {
+            users.addLast(userId);
+        } else {
+            guildQueues.remove(userId);
+        }
+        if (!users.isEmpty()) {
+            guildRotation.addLast(guildId);
+        } else {
+            userRotation.remove(guildId);
+            queues.remove(guildId);
+        }
+        return job;
+    }
+
+    private static void run(Job job) {
+        Message notice;
+        synchronized (DownloadScheduler.class) {
+            notice = job.notice;
+        }
+        if (notice != null) {
+            notice.delete().queue(null, t -> {});
+        }
+
+        CompletableFuture<?> work;
+        try {
+            work = job.task.get();
+        } catch (RuntimeException e) {
+            System.err.println("[DOWNLOAD] Task failed to start: " + e.getMessage());
+            work = CompletableFuture.failedFuture(e);
+        }
+        if (work == null) work = CompletableFuture.completedFuture(null);
+
+        work.whenComplete((result, error) -> {
+            synchronized (DownloadScheduler.class) {
+                active--;
+                completed++;
+            }
+            dispatch();
+        });
+    }
+
+    /**
+     * Tells the user where they are in the queue if their job is still waiting
+     */
+    private static void postNotice(Job job) {
+        int position;
+        synchronized (DownloadScheduler.class) {
+            if (job.started) return;
+            position = positionOf(job);
+        }
+        if (position < 0) return;
+
+        job.channel.sendMessage("⏳ <@" + job.userId + "> your download is queued, position #" + position)
+                .setAllowedMentions(List.of())
+                .queue(message -> {
+                    boolean stillWaiting;
+                    synchronized (DownloadScheduler.class) {
+                        stillWaiting = !job.started;
+                        if (stillWaiting) job.notice = message;
+                    }
+                    if (!stillWaiting) message.delete().queue(null, t -> {});
+                });
+    }
+
+    /**
+     * Replays the round-robin order on a copy of the queues to find a job's
+     * 1-based position. Caller holds the class lock.
+     */
+    private static int positionOf(Job target) {
+        Deque<String> guilds = new ArrayDeque<>(guildRotation);
+        Map<String, Deque<String>> users = new HashMap<>();
+        Map<String, Deque<Job>> jobs = new HashMap<>();
+        userRotation.forEach((guildId, ids) -> users.put(guildId, new ArrayDeque<>(ids)));
+        queues.forEach((guildId, byUser) -> byUser.forEach((userId, waiting) ->
+                jobs.put(guildId + "/" + userId, new ArrayDeque<>(waiting))));
+
+        int position = 0;
+        while (!guilds.isEmpty()) {
+            String guildId = guilds.pollFirst();
+            Deque<String> guildUsers = users.get(guildId);
+            String userId = guildUsers.pollFirst();
+            Deque<Job> userJobs = jobs.get(guildId + "/" + userId);
+
+            position++;
+            if (userJobs.pollFirst() == target) return position;
+
+            if (!userJobs.isEmpty()) guildUsers.addLast(userId);
+            if (!guildUsers.isEmpty()) guilds.addLast(guildId);
+        }
+        return -1;
+    }
+
+    /**
+     * Gets queue depth, wait times and totals for the stats command
+     */
+    public static synchronized String getStats() {
+        long averageWait = started > 0 ? totalWaitMillis / started : 0;
+        return String.format("Active: %d/%d, queued: %d (%d guilds)\nWait avg: %d ms, max: %d ms\nCompleted: %d, rejected: %d",
+                active, MAX_CONCURRENT, queued, guildRotation.size(), averageWait, maxWaitMillis, completed, rejected);
+    }
+}
@@ -1,30 +1,28 @@
 package com.discord.bot.handlers;
 
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
 import net.dv8tion.jda.api.utils.FileUpload;
-import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.classic.methods.HttpHead;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.ClassicHttpResponse;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Handler for downloading media from Instagram, Facebook, and TikTok.
  */
 public class DownloaderHandler {
 
-    private static final long FILE_SIZE_LIMIT = 100 * 1024 * 1024; // 100MB
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/133.0.0.0 Safari/537.36";
 
@@ -37,6 +35,10 @@ public class DownloaderHandler {
         "tt", new PlatformConfig("ttdl", "tiktok.mp4", "data[0]", "f.tt")
     );
 
+    // Links downloaded from one command at most, and how many of them are fetched at once
+    private static final int MAX_BATCH_LINKS = 10;
+    private static final int BATCH_PARALLELISM = 3;
+
     // Usage tutorials
     private static final Map<String, String> USAGE_TUTORIAL = Map.of(
         "ig", "Masukkan URL Reel Instagram yang valid!\nContoh: `f.ig https://instagram.com/...`",
@@ -45,36 +47,29 @@ public class DownloaderHandler {
     );
 
     /**
-     * Validates URL format
+     * Finds which platform a link belongs to, or null if it isn't supported here
      */
-    private static boolean validateUrl(String url) {
-        return url != null && url.matches("^https?://\\S+");
+    private static String platformOf(String url) {
+        String lower = url.toLowerCase();
+        if (lower.contains("instagram.com") || lower.contains("instagr.am")) return "ig";
+        if (lower.contains("tiktok.com")) return "tt";
+        if (lower.contains("facebook.com") || lower.contains("fb.watch")) return "fb";
+        return null;
     }
 
     /**
-     * Gets file size from URL via HEAD request
+     * Validates URL format
      */
-    private static long getFileSize(String url) {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            var request = new HttpHead(url);
-            request.setHeader("User-Agent", USER_AGENT);
-            // Follow redirects
-            try (ClassicHttpResponse response = client.execute(request)) {
-                var contentLengthHeader = response.getFirstHeader("Content-Length");
-                if (contentLengthHeader != null) {
-                    return Long.parseLong(contentLengthHeader.getValue());
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to get file size: " + e.getMessage());
-        }
-        return Long.MAX_VALUE;
+    private static boolean validateUrl(String url) {
+        return url != null && url.matches("^https?://\\S+");
     }
 
     /**
-     * Extracts media URL from API response
+     * Extracts every media URL from the API response, starting at the
+     * dataPath index, up to the attachment limit of one message
      */
-    private static String extractMediaUrl(JsonNode response, String dataPath) {
+    private static List<String> extractMediaUrls(JsonNode response, String dataPath) {
+        List<String> urls = new ArrayList<>();
         try {
             // Parse dataPath like "data[0]"
             String[] pathParts = dataPath.split("\\[|\\]");
@@ -82,138 +77,365 @@ public class DownloaderHandler {
             int arrayIndex = Integer.parseInt(pathParts[1]);
 
             JsonNode dataNode = response.get(mainKey);
-            if (dataNode != null && dataNode.isArray() && dataNode.size() > arrayIndex) {
-                JsonNode mediaNode = dataNode.get(arrayIndex);
-                if (mediaNode.has("url")) {
-                    return mediaNode.get("url").asText();
+            if (dataNode != null && dataNode.isArray()) {
+                for (int i = arrayIndex; i < dataNode.size() && urls.size() < Message.MAX_FILE_AMOUNT; i++) {
+                    JsonNode mediaNode = dataNode.get(i);
+                    if (mediaNode.has("url") && !urls.contains(mediaNode.get("url").asText())) {
+                        urls.add(mediaNode.get("url").asText());
+                    }
                 }
             }
         } catch (Exception e) {
             System.err.println("Error extracting media URL: " + e.getMessage());
         }
-        return null;
+        return urls;
+    }
+
+    /**
+     * Downloads a post and delivers it through the reply. Shared by the
+     * prefix commands and the /downloader slash command.
+     */
+    public static CompletableFuture<Message> download(String platform, String url, String content,
+                                                      long uploadLimit, MediaReply reply) {
+        var config = PLATFORM_CONFIG.get(platform);
+
+        // Serve repeats of the same link from the media cache or our earlier upload
+        MediaCache.Key cacheKey = MediaCache.key(platform, url);
+        CompletableFuture<Message> delivery = MediaDownloader.deliver(cacheKey, config.fileName(), uploadLimit, reply,
+                meta -> content, () -> resolveAndSend(config, url, content, uploadLimit, cacheKey, reply));
+
+        // A failed attempt may mean the resolved media URL expired, so the next one resolves again
+        return delivery.whenComplete((message, error) -> {
+            if (error != null) ResolveCache.invalidate(cacheKey.value());
+        });
+    }
+
+    /**
+     * Resolves a link to its media URLs through the API
+     */
+    private static CompletableFuture<List<String>> resolve(PlatformConfig config, String url, MediaCache.Key cacheKey) {
+        String apiUrl = "https://api.ryzendesu.vip/api/downloader/" + config.endpoint() +
+                "?url=" + URLEncoder.encode(url, StandardCharsets.UTF_8);
+
+        var request = SimpleRequestBuilder.get(apiUrl)
+                .setHeader("User-Agent", USER_AGENT)
+                .build();
+
+        // Repeat links reuse the cached API response; concurrent ones share one call
+        return ResolveCache.resolve(cacheKey.value(),
+                        data -> !extractMediaUrls(data, config.dataPath()).isEmpty(),
+                        () -> HttpHandler.executeAsync(request).thenApply(response -> {
+                            try {
+                                return objectMapper.readTree(HttpHandler.bodyAsString(response));
+                            } catch (Exception e) {
+                                throw new CompletionException(e);
+                            }
+                        }))
+                .thenApply(jsonNode -> {
+                    List<String> mediaUrls = extractMediaUrls(jsonNode, config.dataPath());
+                    if (mediaUrls.isEmpty()) {
+                        throw new RuntimeException("Media tidak ditemukan");
+                    }
+                    return mediaUrls;
+                });
+    }
+
+    /**
+     * Resolves the media URL through the API and sends it as an attachment,
+     * or as a hidden link when it is too large
+     */
+    private static CompletableFuture<Message> resolveAndSend(PlatformConfig config, String url, String content,
+                                                             long uploadLimit, MediaCache.Key cacheKey,
+                                                             MediaReply reply) {
+        reply.status("🔎 Resolving...");
+
+        return resolve(config, url, cacheKey)
+                .thenCompose(mediaUrls -> {
+                    // Carousels and slideshows - fetch every item in parallel, send as one message
+                    if (mediaUrls.size() > 1) {
+                        return sendCarousel(config, mediaUrls, content, uploadLimit, reply);
+                    }
+
+                    String mediaUrl = mediaUrls.get(0);
+
+                    // Relay the download straight into the attachment upload
+                    return MediaDownloader.upload(mediaUrl, config.fileName(), uploadLimit, cacheKey, reply, content)
+                            .exceptionallyCompose(error -> {
+                                if (!MediaDownloader.isTooLarge(error)) {
+                                    return CompletableFuture.failedFuture(error);
+                                }
+
+                                // File too large - send as hidden link
+                                return reply.send(content + "\n" + hiddenLink(mediaUrl)).submit();
+                            });
+                });
+    }
+
+    /**
+     * Sends all items of a multi-item post in one message. Items that can't be
+     * attached are added as hidden links.
+     */
+    private static CompletableFuture<Message> sendCarousel(PlatformConfig config, List<String> mediaUrls,
+                                                           String content, long uploadLimit, MediaReply reply) {
+        reply.status("⬇️ Downloading " + mediaUrls.size() + " items...");
+
+        return MediaDownloader.uploadAll(mediaItems(config, mediaUrls, ""), uploadLimit, (files, skipped) -> {
+            StringBuilder text = new StringBuilder(content);
+            for (String url : skipped) {
+                text.append("\n").append(hiddenLink(url));
+            }
+            return reply.send(text.toString(), files);
+        });
+    }
+
+    /**
+     * Names the items of a post after the platform, e.g. tiktok-2.mp4, with
+     * an optional tag to keep names unique across links
+     */
+    private static List<MediaDownloader.MediaItem> mediaItems(PlatformConfig config, List<String> mediaUrls, String tag) {
+        String baseName = config.fileName().substring(0, config.fileName().lastIndexOf('.'));
+        List<MediaDownloader.MediaItem> items = new ArrayList<>();
+        for (int i = 0; i < mediaUrls.size(); i++) {
+            items.add(new MediaDownloader.MediaItem(mediaUrls.get(i), baseName + tag + "-" + (i + 1) + ".mp4"));
+        }
+        return items;
+    }
+
+    /**
+     * Formats a media URL as a link that only shows its embed
+     */
+    private static String hiddenLink(String mediaUrl) {
+        return "[᲼](" + mediaUrl.replace("dl=1", "dl=0") + ")";
+    }
+
+    /**
+     * One link of a batch: the fetched media of its post, or why it failed
+     */
+    private record BatchLink(String url, List<MediaDownloader.FetchedMedia> media, Throwable error) {}
+
+    /**
+     * Resolves one link of a batch and fetches its media into spools
+     */
+    private static CompletableFuture<BatchLink> fetchLink(String platform, String url, int index, long uploadLimit) {
+        var config = PLATFORM_CONFIG.get(platform);
+        MediaCache.Key cacheKey = MediaCache.key(platform, url);
+
+        return resolve(config, url, cacheKey)
+                .thenCompose(mediaUrls -> MediaDownloader.fetchAll(mediaItems(config, mediaUrls, "-" + (index + 1)), uploadLimit))
+                .handle((media, error) -> {
+                    if (error != null) {
+                        ResolveCache.invalidate(cacheKey.value());
+                        return new BatchLink(url, List.of(), HttpHandler.rootCause(error));
+                    }
+                    return new BatchLink(url, media, null);
+                });
+    }
+
+    /**
+     * Downloads several links from one command. The batch runs in the
+     * command's own download slot, fetching a few links at a time, then all
+     * results are packed into as few messages as the attachment count, upload
+     * limit and message length allow.
+     */
+    private static CompletableFuture<Void> downloadBatch(MessageReceivedEvent event, Map<String, String> links,
+                                                         String content, long uploadLimit) {
+        List<Map.Entry<String, String>> pending = new ArrayList<>(links.entrySet());
+        BatchLink[] results = new BatchLink[pending.size()];
+        AtomicInteger next = new AtomicInteger();
+
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(BATCH_PARALLELISM, pending.size()); i++) {
+            workers.add(fetchNext(pending, next, results, uploadLimit));
+        }
+
+        return CompletableFuture.allOf(workers.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(ignored -> sendBatch(MediaReply.toChannel(event.getChannel()), content,
+                        List.of(results), uploadLimit));
     }
 
     /**
-     * Downloads media bytes from URL
+     * Fetches the batch's links one after another until none are left
      */
-    private static byte[] downloadMedia(String url) throws Exception {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            var request = new HttpGet(url);
-            request.setHeader("User-Agent", USER_AGENT);
+    private static CompletableFuture<Void> fetchNext(List<Map.Entry<String, String>> links, AtomicInteger next,
+                                                     BatchLink[] results, long uploadLimit) {
+        int index = next.getAndIncrement();
+        if (index >= links.size()) return CompletableFuture.completedFuture(null);
+
+        Map.Entry<String, String> link = links.get(index);
+        return fetchLink(link.getValue(), link.getKey(), index, uploadLimit)
+                .thenCompose(result -> {
+                    results[index] = result;
+                    return fetchNext(links, next, results, uploadLimit);
+                });
+    }
+
+    private static final class Draft {
+        final StringBuilder text;
+        final List<FileUpload> files = new ArrayList<>();
+        long size;
+
+        Draft(String text) {
+            this.text = new StringBuilder(text);
+        }
+    }
+
+    /**
+     * Packs the fetched media into messages in link order and sends them one
+     * after another. Oversized items become hidden links and failed links are
+     * listed at the end. Fails when nothing at all could be delivered.
+     */
+    private static CompletableFuture<Void> sendBatch(MediaReply reply, String content, List<BatchLink> results,
+                                                     long uploadLimit) {
+        List<MediaSpool.SpooledMedia> spools = new ArrayList<>();
+        List<String> lines = new ArrayList<>();
+        List<Draft> drafts = new ArrayList<>();
+        Draft current = new Draft(content);
+        drafts.add(current);
+        boolean delivered = false;
+        Throwable firstError = null;
+
+        for (BatchLink result : results) {
+            if (result.error() != null) {
+                System.err.println("[BATCH] " + result.url() + " failed: " + result.error().getMessage());
+                if (firstError == null) firstError = result.error();
+                lines.add("❌ <" + result.url() + ">");
+                continue;
+            }
+
+            for (MediaDownloader.FetchedMedia fetched : result.media()) {
+                if (fetched.media() == null) {
+                    if (fetched.isTooLarge()) {
+                        lines.add(hiddenLink(fetched.item().url()));
+                        delivered = true;
+                    } else {
+                        lines.add("❌ <" + result.url() + ">");
+                    }
+                    continue;
+                }
+
+                long size = fetched.media().getSize();
+                if (current.files.size() >= Message.MAX_FILE_AMOUNT || current.size + size > uploadLimit) {
+                    current = new Draft("");
+                    drafts.add(current);
+                }
+                spools.add(fetched.media());
+                current.files.add(fetched.toFileUpload());
+                current.size += size;
+                delivered = true;
+            }
+        }
+
+        if (!delivered) {
+            return CompletableFuture.failedFuture(firstError != null ? firstError
+                    : new RuntimeException("Media tidak ditemukan"));
+        }
 
-            try (ClassicHttpResponse response = client.execute(request)) {
-                return response.getEntity().getContent().readAllBytes();
+        for (String line : lines) {
+            if (current.text.length() + line.length() + 1 > Message.MAX_CONTENT_LENGTH) {
+                current = new Draft("");
+                drafts.add(current);
             }
+            if (!current.text.isEmpty()) current.text.append("\n");
+            current.text.append(line);
         }
+
+        CompletableFuture<Message> chain = CompletableFuture.completedFuture(null);
+        for (Draft draft : drafts) {
+            chain = chain.thenCompose(ignored -> reply.send(draft.text.toString(), draft.files).submit());
+        }
+        return chain.whenComplete((message, error) -> spools.forEach(MediaSpool.SpooledMedia::close))
+                .thenApply(message -> null);
     }
 
     /**
      * Core handler for media downloads
      */
-    private static void handleMediaDownload(MessageReceivedEvent event, String platform) {
+    private static CompletableFuture<?> handleMediaDownload(MessageReceivedEvent event, String platform) {
         var config = PLATFORM_CONFIG.get(platform);
-        String content = event.getMessage().getContentDisplay();
-        String[] args = content.substring(config.prefix().length()).trim().split("\\s+");
+        String[] args = event.getMessage().getContentDisplay().substring(config.prefix().length()).trim().split("\\s+");
 
         // Get URL and message content
         String url = args.length > 0 ? args[0] : "";
-        StringBuilder messageContent = new StringBuilder();
-        for (int i = 1; i < args.length; i++) {
-            if (i > 1) messageContent.append(" ");
-            messageContent.append(args[i]);
-        }
 
         // Show tutorial if URL is invalid
         if (!validateUrl(url)) {
             event.getChannel().sendMessage(USAGE_TUTORIAL.get(platform)).queue();
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
-        CompletableFuture.runAsync(() -> {
-            try {
-                // Delete original message
-                event.getMessage().delete().queue(null, throwable -> {});
-
-                // Call API
-                String apiUrl = "https://api.ryzendesu.vip/api/downloader/" + config.endpoint() +
-                        "?url=" + URLEncoder.encode(url, StandardCharsets.UTF_8);
-
-                try (CloseableHttpClient client = HttpClients.createDefault()) {
-                    var request = new HttpGet(apiUrl);
-                    request.setHeader("User-Agent", USER_AGENT);
-
-                    try (ClassicHttpResponse response = client.execute(request)) {
-                        String jsonResponse = EntityUtils.toString(response.getEntity());
-                        JsonNode jsonNode = objectMapper.readTree(jsonResponse);
-
-                        String mediaUrl = extractMediaUrl(jsonNode, config.dataPath());
-                        if (mediaUrl == null) {
-                            throw new RuntimeException("Media tidak ditemukan");
-                        }
-
-                        long fileSize = getFileSize(mediaUrl);
-                        String modifiedUrl = mediaUrl.replace("dl=1", "dl=0");
-
-                        // Build message content
-                        String userMention = "<@" + event.getAuthor().getId() + ">";
-                        StringBuilder finalContent = new StringBuilder();
-
-                        if (!messageContent.toString().isEmpty()) {
-                            finalContent.append(messageContent.toString().trim()).append("\n");
-                        }
-                        finalContent.append(userMention);
-
-                        if (fileSize > FILE_SIZE_LIMIT) {
-                            // File too large - send as hidden link
-                            finalContent.append("\n[᲼](").append(modifiedUrl).append(")");
-                            event.getChannel().sendMessage(finalContent.toString())
-                                    .setAllowedMentions(java.util.Collections.emptyList())
-                                    .queue();
-                        } else {
-                            // Download and send as attachment
-                            byte[] mediaBytes = downloadMedia(mediaUrl);
-                            try (InputStream inputStream = new ByteArrayInputStream(mediaBytes)) {
-                                var attachment = FileUpload.fromData(inputStream, config.fileName());
-                                event.getChannel().sendMessage(finalContent.toString())
-                                        .addFiles(attachment)
-                                        .setAllowedMentions(java.util.Collections.emptyList())
-                                        .queue();
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println("[" + platform.toUpperCase() + "_ERROR] " + e.getMessage());
-                e.printStackTrace();
-
-                // Send error message and delete after 5 seconds
-                event.getChannel().sendMessage("❌ Gagal mengunduh " + platform.toUpperCase() + " video!")
-                        .queue(errorMessage -> {
-                            errorMessage.delete().queueAfter(5, TimeUnit.SECONDS, null, t -> {});
-                        });
+        // Further supported links join a batch; every other word is the caption
+        Map<String, String> links = new LinkedHashMap<>();
+        links.put(url, platform);
+        StringBuilder messageContent = new StringBuilder();
+        for (int i = 1; i < args.length; i++) {
+            String linkPlatform = validateUrl(args[i]) ? platformOf(args[i]) : null;
+            if (linkPlatform != null && (links.containsKey(args[i]) || links.size() < MAX_BATCH_LINKS)) {
+                links.putIfAbsent(args[i], linkPlatform);
+                continue;
             }
-        });
+            if (!messageContent.isEmpty()) messageContent.append(" ");
+            messageContent.append(args[i]);
+        }
+
+        // Delete original message
+        event.getMessage().delete().queue(null, throwable -> {});
+
+        // Known before anything is fetched, so oversized media is never downloaded
+        long uploadLimit = MediaDownloader.getUploadLimit(event.isFromGuild() ? event.getGuild() : null);
+
+        String content = buildContent(messageContent.toString(), event.getAuthor().getId());
+
+        if (links.size() > 1) {
+            return downloadBatch(event, links, content, uploadLimit)
+                    .exceptionally(error -> reportFailure(event, platform, error));
+        }
+
+        return download(platform, url, content, uploadLimit, MediaReply.toChannel(event.getChannel()))
+                .exceptionally(error -> reportFailure(event, platform, error));
+    }
+
+    /**
+     * Logs a failed download and tells the user with a message that deletes itself
+     */
+    private static <T> T reportFailure(MessageReceivedEvent event, String platform, Throwable error) {
+        Throwable e = HttpHandler.rootCause(error);
+        System.err.println("[" + platform.toUpperCase() + "_ERROR] " + e.getMessage());
+        e.printStackTrace();
+
+        // Send error message and delete after 5 seconds
+        event.getChannel().sendMessage("❌ Gagal mengunduh " + platform.toUpperCase() + " video!")
+                .queue(errorMessage -> {
+                    errorMessage.delete().queueAfter(5, TimeUnit.SECONDS, null, t -> {});
+                });
+        return null;
+    }
+
+    /**
+     * Builds the message text: the user's caption, then their mention
+     */
+    public static String buildContent(String caption, String userId) {
+        String userMention = "<@" + userId + ">";
+        return caption == null || caption.isBlank() ? userMention : caption.trim() + "\n" + userMention;
     }
 
     /**
      * Handle Instagram download
      */
-    public static void handleIg(MessageReceivedEvent event) {
-        handleMediaDownload(event, "ig");
+    public static CompletableFuture<?> handleIg(MessageReceivedEvent event) {
+        return handleMediaDownload(event, "ig");
     }
 
     /**
      * Handle Facebook download
      */
-    public static void handleFb(MessageReceivedEvent event) {
-        handleMediaDownload(event, "fb");
+    public static CompletableFuture<?> handleFb(MessageReceivedEvent event) {
+        return handleMediaDownload(event, "fb");
     }
 
     /**
      * Handle TikTok download
      */
-    public static void handleTt(MessageReceivedEvent event) {
-        handleMediaDownload(event, "tt");
+    public static CompletableFuture<?> handleTt(MessageReceivedEvent event) {
+        return handleMediaDownload(event, "tt");
     }
 }
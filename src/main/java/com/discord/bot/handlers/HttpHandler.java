@@ -0,0 +1,273 @@
+package com.discord.bot.handlers;
+
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.async.methods.SimpleHttpRequest;
+import org.apache.hc.client5.http.async.methods.SimpleHttpResponse;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.config.TlsConfig;
+import org.apache.hc.client5.http.impl.DefaultSchemePortResolver;
+import org.apache.hc.client5.http.impl.async.CloseableHttpAsyncClient;
+import org.apache.hc.client5.http.impl.async.HttpAsyncClients;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManager;
+import org.apache.hc.client5.http.impl.nio.PoolingAsyncClientConnectionManagerBuilder;
+import org.apache.hc.client5.http.impl.routing.DefaultRoutePlanner;
+import org.apache.hc.client5.http.protocol.HttpClientContext;
+import org.apache.hc.client5.http.routing.HttpRoutePlanner;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.HttpException;
+import org.apache.hc.core5.http.HttpHost;
+import org.apache.hc.core5.http.nio.AsyncRequestProducer;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http2.HttpVersionPolicy;
+import org.apache.hc.core5.io.CloseMode;
+import org.apache.hc.core5.pool.PoolStats;
+import org.apache.hc.core5.reactor.IOReactorConfig;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import com.discord.bot.utils.Settings;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Shared HTTP transport for every outbound call made by the bot.
+ * Connections are pooled per host and kept alive between requests.
+ * The async client negotiates HTTP/2 where the upstream supports it
+ * and holds no thread while a request is in flight.
+ */
+public class HttpHandler {
+
+    private static final int MAX_TOTAL = Settings.getInt("HTTP_MAX_TOTAL", 100, 1);
+    private static final int MAX_PER_ROUTE = Settings.getInt("HTTP_MAX_PER_ROUTE", 20, 1);
+    private static final long KEEP_ALIVE_SECONDS = Settings.getInt("HTTP_KEEP_ALIVE_SECONDS", 60, 1);
+
+    // Per-host limits, format: host:limit,host:limit
+    private static final Map<String, Integer> ROUTE_LIMITS = parseRouteLimits(Settings.get("HTTP_ROUTE_LIMITS"));
+
+    // Same planner the clients use by default, to check route limits against
+    private static final HttpRoutePlanner ROUTE_PLANNER = new DefaultRoutePlanner(DefaultSchemePortResolver.INSTANCE);
+
+    private static final PoolingHttpClientConnectionManager connectionManager = createConnectionManager();
+    private static final CloseableHttpClient client = HttpClients.custom()
+            .setConnectionManager(connectionManager)
+            .setDefaultRequestConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(Timeout.ofSeconds(30))
+                    .setResponseTimeout(Timeout.ofMinutes(2))
+                    .build())
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.ofSeconds(KEEP_ALIVE_SECONDS))
+            .build();
+
+    private static final PoolingAsyncClientConnectionManager asyncConnectionManager = createAsyncConnectionManager();
+    private static final CloseableHttpAsyncClient asyncClient = HttpAsyncClients.custom()
+            .setConnectionManager(asyncConnectionManager)
+            .setIOReactorConfig(IOReactorConfig.custom()
+                    .setSoTimeout(Timeout.ofMinutes(2))
+                    .build())
+            .setDefaultRequestConfig(RequestConfig.custom()
+                    .setConnectionRequestTimeout(Timeout.ofSeconds(30))
+                    .setResponseTimeout(Timeout.ofMinutes(2))
+                    .build())
+            .evictExpiredConnections()
+            .evictIdleConnections(TimeValue.ofSeconds(KEEP_ALIVE_SECONDS))
+            .build();
+
+    static {
+        asyncClient.start();
+    }
+
+    private static PoolingHttpClientConnectionManager createConnectionManager() {
+        PoolingHttpClientConnectionManager manager = PoolingHttpClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(MAX_TOTAL)
+                .setMaxConnPerRoute(MAX_PER_ROUTE)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofSeconds(10))
+                        .setSocketTimeout(Timeout.ofMinutes(2))
+                        .setTimeToLive(TimeValue.ofMinutes(10))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                        .build())
+                .build();
+
+        applyRouteLimits(manager::setMaxPerRoute, manager::getMaxPerRoute, "sync");
+        return manager;
+    }
+
+    private static PoolingAsyncClientConnectionManager createAsyncConnectionManager() {
+        PoolingAsyncClientConnectionManager manager = PoolingAsyncClientConnectionManagerBuilder.create()
+                .setMaxConnTotal(MAX_TOTAL)
+                .setMaxConnPerRoute(MAX_PER_ROUTE)
+                .setDefaultConnectionConfig(ConnectionConfig.custom()
+                        .setConnectTimeout(Timeout.ofSeconds(10))
+                        .setSocketTimeout(Timeout.ofMinutes(2))
+                        .setTimeToLive(TimeValue.ofMinutes(10))
+                        .setValidateAfterInactivity(TimeValue.ofSeconds(10))
+                        .build())
+                .setDefaultTlsConfig(TlsConfig.custom()
+                        .setVersionPolicy(HttpVersionPolicy.NEGOTIATE)
+                        .build())
+                .build();
+
+        applyRouteLimits(manager::setMaxPerRoute, manager::getMaxPerRoute, "async");
+        return manager;
+    }
+
+    /**
+     * Sets the per-host limits on the routes the client's planner builds for
+     * plain and TLS requests, then checks the pool reports them for planned
+     * routes. A route differing in any flag (such as secure) would be a
+     * different pool key and keep the default limit.
+     */
+    private static void applyRouteLimits(BiConsumer<HttpRoute, Integer> setLimit,
+                                         Function<HttpRoute, Integer> getLimit, String pool) {
+        ROUTE_LIMITS.forEach((host, limit) -> {
+            for (HttpHost target : List.of(new HttpHost("https", host, 443), new HttpHost("http", host, 80))) {
+                setLimit.accept(new HttpRoute(target, null, "https".equalsIgnoreCase(target.getSchemeName())), limit);
+                try {
+                    HttpRoute planned = ROUTE_PLANNER.determineRoute(target, HttpClientContext.create());
+                    if (getLimit.apply(planned) != limit.intValue()) {
+                        System.err.println("[HTTP] Route limit " + limit + " for " + target + " is not applied in the "
+                                + pool + " pool");
+                    }
+                } catch (HttpException e) {
+                    System.err.println("[HTTP] Cannot plan route to " + target + ": " + e.getMessage());
+                }
+            }
+        });
+    }
+
+    private static Map<String, Integer> parseRouteLimits(String value) {
+        Map<String, Integer> limits = new LinkedHashMap<>();
+        if (value == null || value.isBlank()) return limits;
+
+        for (String entry : value.split(",")) {
+            String[] parts = entry.trim().split(":");
+            if (parts.length != 2) continue;
+            try {
+                limits.put(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+            } catch (NumberFormatException e) {
+                System.err.println("[HTTP] Invalid route limit: " + entry);
+            }
+        }
+        return limits;
+    }
+
+    /**
+     * Gets the shared pooled client. Callers must not close it.
+     */
+    public static CloseableHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Executes a request on the async client. Callbacks run on the I/O
+     * reactor, so dependent stages must not block.
+     */
+    public static CompletableFuture<SimpleHttpResponse> executeAsync(SimpleHttpRequest request) {
+        CompletableFuture<SimpleHttpResponse> future = new CompletableFuture<>();
+        asyncClient.execute(request, toCallback(future));
+        return future;
+    }
+
+    /**
+     * Executes a request on the async client with a custom response consumer.
+     * The returned future can be cancelled to abort the exchange.
+     */
+    public static <T> Future<T> executeAsync(AsyncRequestProducer producer, AsyncResponseConsumer<T> consumer,
+                                             FutureCallback<T> callback) {
+        return asyncClient.execute(producer, consumer, callback);
+    }
+
+    private static <T> FutureCallback<T> toCallback(CompletableFuture<T> future) {
+        return new FutureCallback<>() {
+            @Override
+            public void completed(T result) {
+                future.complete(result);
+            }
+
+            @Override
+            public void failed(Exception ex) {
+                future.completeExceptionally(ex);
+            }
+
+            @Override
+            public void cancelled() {
+                future.cancel(false);
+            }
+        };
+    }
+
+    /**
+     * Reads a buffered response body as UTF-8 text
+     */
+    public static String bodyAsString(SimpleHttpResponse response) {
+        byte[] body = response.getBodyBytes();
+        return body == null ? "" : new String(body, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Unwraps the exception thrown by a failed async stage
+     */
+    public static Throwable rootCause(Throwable error) {
+        while ((error instanceof CompletionException || error instanceof ExecutionException)
+                && error.getCause() != null) {
+            error = error.getCause();
+        }
+        return error;
+    }
+
+    /**
+     * Gets a short summary of both connection pools, total and per host
+     */
+    public static String getPoolStats() {
+        PoolStats total = connectionManager.getTotalStats();
+        PoolStats asyncTotal = asyncConnectionManager.getTotalStats();
+        StringBuilder stats = new StringBuilder(String.format(
+                "Sync: %d leased, %d idle, %d pending (max %d)\nAsync: %d leased, %d idle, %d pending (max %d)",
+                total.getLeased(), total.getAvailable(), total.getPending(), total.getMax(),
+                asyncTotal.getLeased(), asyncTotal.getAvailable(), asyncTotal.getPending(), asyncTotal.getMax()));
+
+        Map<String, int[]> hosts = new LinkedHashMap<>();
+        for (HttpRoute route : connectionManager.getRoutes()) {
+            addRouteStats(hosts, route, connectionManager.getStats(route));
+        }
+        for (HttpRoute route : asyncConnectionManager.getRoutes()) {
+            addRouteStats(hosts, route, asyncConnectionManager.getStats(route));
+        }
+
+        for (var entry : hosts.entrySet()) {
+            // Keep within Discord's embed field limit
+            if (stats.length() > 900) {
+                stats.append("\n...");
+                break;
+            }
+            stats.append(String.format("\n%s: %d open", entry.getKey(), entry.getValue()[0]));
+        }
+        return stats.toString();
+    }
+
+    private static void addRouteStats(Map<String, int[]> hosts, HttpRoute route, PoolStats routeStats) {
+        hosts.computeIfAbsent(route.getTargetHost().getHostName(), k -> new int[1])[0] +=
+                routeStats.getLeased() + routeStats.getAvailable();
+    }
+
+    /**
+     * Closes the shared clients and all pooled connections
+     */
+    public static void shutdown() {
+        client.close(CloseMode.GRACEFUL);
+        asyncClient.close(CloseMode.GRACEFUL);
+    }
+}
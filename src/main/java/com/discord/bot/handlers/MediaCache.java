@@ -0,0 +1,455 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.utils.FileUpload;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.discord.bot.utils.Settings;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * On-disk cache of downloaded media, so a link posted again skips the
+ * resolve API and the CDN download. Entries are keyed by normalized source
+ * URL and point at content-addressed blobs, so the same file reached through
+ * different links is stored once. The index is saved next to the blobs and
+ * reloaded on startup; rewrites of it are batched on a background thread.
+ */
+public class MediaCache {
+
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    private static final Path CACHE_DIR = Path.of(Settings.get("MEDIA_CACHE_DIR", "cache/media"));
+    private static final Path INDEX_FILE = CACHE_DIR.resolve("index.json");
+    private static final long MAX_BYTES = Settings.getLong("MEDIA_CACHE_MAX_MB", 1024) * 1024 * 1024;
+    private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(Settings.getLong("MEDIA_CACHE_TTL_HOURS", 24));
+
+    // Query parameters that identify content; everything else is tracking noise
+    private static final Set<String> KEPT_PARAMS = Set.of("v", "id", "fbid", "story_fbid");
+
+    private static final class Entry {
+        final String hash;
+        final long size;
+        final long createdAt;
+        final String meta;
+        volatile long lastAccess;
+
+        Entry(String hash, long size, long createdAt, long lastAccess, String meta) {
+            this.hash = hash;
+            this.size = size;
+            this.createdAt = createdAt;
+            this.lastAccess = lastAccess;
+            this.meta = meta;
+        }
+    }
+
+    /**
+     * Cache key plus optional text stored with the entry, e.g. a caption
+     * that would otherwise need another API call to rebuild.
+     */
+    public record Key(String value, String meta) {
+        public Key withMeta(String meta) {
+            return new Key(value, meta);
+        }
+    }
+
+    /**
+     * A cache hit
+     */
+    public record CachedMedia(Path file, long size, String meta) {
+        /**
+         * Wraps the cached file for a Discord upload, shaped like any other transfer
+         */
+        public FileUpload toFileUpload(String fileName) {
+            return FileUpload.fromStreamSupplier(fileName, () -> {
+                try {
+                    return BandwidthShaper.shape(Files.newInputStream(file));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+    }
+
+    private static final Map<String, Entry> index = new ConcurrentHashMap<>();
+    // Index changes come in bursts; one rewrite covers all of them
+    private static final DebouncedTask indexSaver = new DebouncedTask("CACHE", MediaCache::writeIndex, 1000);
+    // Blob sizes by content hash, guarded by the class lock
+    private static final Map<String, Long> blobs = new HashMap<>();
+    private static long totalBytes;
+
+    static {
+        if (isEnabled()) loadIndex();
+    }
+
+    public static boolean isEnabled() {
+        return MAX_BYTES > 0;
+    }
+
+    /**
+     * Builds the cache key for a source link. The variant separates handlers
+     * and output formats that start from the same URL.
+     */
+    public static Key key(String variant, String url) {
+        return new Key(variant + ":" + normalizeUrl(url), null);
+    }
+
+    /**
+     * Normalizes a source URL: lower-case host without www/m, no fragment,
+     * no trailing slash, and only the query parameters that identify content.
+     */
+    public static String normalizeUrl(String url) {
+        try {
+            URI uri = new URI(url.trim());
+            String host = uri.getHost() == null ? "" : uri.getHost().toLowerCase();
+            if (host.startsWith("www.")) host = host.substring(4);
+            if (host.startsWith("m.")) host = host.substring(2);
+            if (host.equals("twitter.com")) host = "x.com";
+
+            String path = uri.getPath() == null ? "" : uri.getPath();
+            while (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+
+            StringJoiner query = new StringJoiner("&", "?", "").setEmptyValue("");
+            if (uri.getRawQuery() != null) {
+                for (String param : uri.getRawQuery().split("&")) {
+                    String name = param.split("=", 2)[0];
+                    if (KEPT_PARAMS.contains(name)) query.add(param);
+                }
+            }
+            return host + path + query;
+        } catch (Exception e) {
+            return url.trim();
+        }
+    }
+
+    /**
+     * Looks up a cached file. Expired entries and entries whose blob has gone
+     * missing are dropped and reported as a miss.
+     */
+    public static CachedMedia lookup(Key key) {
+        if (!isEnabled()) return null;
+
+        Entry entry = index.get(key.value());
+        if (entry == null) return null;
+
+        long now = System.currentTimeMillis();
+        Path file = blobPath(entry.hash);
+        if (now - entry.createdAt > TTL_MILLIS || !Files.exists(file)) {
+            synchronized (MediaCache.class) {
+                removeEntry(key.value());
+                saveIndex();
+            }
+            return null;
+        }
+
+        entry.lastAccess = now;
+        return new CachedMedia(file, entry.size, entry.meta);
+    }
+
+    /**
+     * Starts writing a new entry. Returns null when the cache is disabled or
+     * the announced size could never fit.
+     */
+    public static Writer newWriter(Key key, long contentLength) {
+        if (!isEnabled() || contentLength > MAX_BYTES) return null;
+        try {
+            Files.createDirectories(CACHE_DIR);
+            return new Writer(key, Files.createTempFile(CACHE_DIR, "incoming-", ".tmp"));
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("[CACHE] Cannot create cache file: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Copies a complete stream into the cache
+     */
+    public static void put(Key key, InputStream in) {
+        Writer writer = newWriter(key, 0);
+        if (writer == null) return;
+
+        try (in) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                writer.write(buffer, 0, read);
+            }
+            writer.markComplete();
+            writer.commit();
+        } catch (IOException e) {
+            System.err.println("[CACHE] Failed to store " + key.value() + ": " + e.getMessage());
+            writer.discard();
+        }
+    }
+
+    /**
+     * Moves a finished file, such as a journaled download, into the cache.
+     * It is hashed where it lies and moved, never written a second time.
+     * The file is gone afterwards, whether or not it could be cached.
+     */
+    public static void adopt(Key key, Path file) {
+        try {
+            long size = Files.size(file);
+            if (!isEnabled() || size > MAX_BYTES) {
+                Files.deleteIfExists(file);
+                return;
+            }
+
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(Files.newInputStream(file), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            Files.createDirectories(CACHE_DIR);
+            store(key, file, HexFormat.of().formatHex(digest.digest()), size);
+        } catch (IOException | NoSuchAlgorithmException e) {
+            System.err.println("[CACHE] Failed to store " + key.value() + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException deleteError) {
+                System.err.println("[CACHE] Failed to delete " + file + ": " + deleteError.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Moves a complete file into place as the blob for its hash, unless that
+     * blob already exists, and points the key at it
+     */
+    private static void store(Key key, Path file, String hash, long size) throws IOException {
+        Path blob = blobPath(hash);
+        if (Files.exists(blob)) {
+            Files.delete(file);
+        } else {
+            try {
+                Files.move(file, blob, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                // Another file system; copy next to the blob first so it only ever appears whole
+                Path temp = Files.createTempFile(CACHE_DIR, "incoming-", ".tmp");
+                Files.copy(file, temp, StandardCopyOption.REPLACE_EXISTING);
+                Files.move(temp, blob, StandardCopyOption.ATOMIC_MOVE);
+                Files.delete(file);
+            }
+        }
+
+        long now = System.currentTimeMillis();
+        synchronized (MediaCache.class) {
+            removeEntry(key.value());
+            index.put(key.value(), new Entry(hash, size, now, now, key.meta()));
+            if (blobs.putIfAbsent(hash, size) == null) {
+                totalBytes += size;
+            }
+            evict();
+            saveIndex();
+        }
+    }
+
+    /**
+     * Receives media bytes as they pass through a download and hashes them on
+     * the way. Write errors only disable caching for this download.
+     */
+    public static class Writer {
+        private final Key key;
+        private final Path tempFile;
+        private final FileChannel channel;
+        private final MessageDigest digest;
+        private long size;
+        private boolean failed;
+        private boolean complete;
+
+        private Writer(Key key, Path tempFile) throws IOException, NoSuchAlgorithmException {
+            this.key = key;
+            this.tempFile = tempFile;
+            this.channel = FileChannel.open(tempFile, StandardOpenOption.WRITE);
+            this.digest = MessageDigest.getInstance("SHA-256");
+        }
+
+        synchronized void write(byte[] data, int offset, int length) {
+            if (failed || length <= 0) return;
+            try {
+                size += length;
+                if (size > MAX_BYTES) throw new IOException("Entry larger than the cache");
+
+                digest.update(data, offset, length);
+                ByteBuffer buffer = ByteBuffer.wrap(data, offset, length);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        synchronized void markComplete() {
+            complete = true;
+        }
+
+        /**
+         * Stores the entry if the whole body was seen, otherwise discards it
+         */
+        public synchronized void commit() {
+            if (failed || !complete) {
+                discard();
+                return;
+            }
+
+            try {
+                channel.close();
+                store(key, tempFile, HexFormat.of().formatHex(digest.digest()), size);
+            } catch (IOException e) {
+                System.err.println("[CACHE] Failed to store " + key.value() + ": " + e.getMessage());
+                discard();
+            }
+        }
+
+        public synchronized void discard() {
+            failed = true;
+            try {
+                channel.close();
+                Files.deleteIfExists(tempFile);
+            } catch (IOException e) {
+                System.err.println("[CACHE] Failed to delete " + tempFile + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static Path blobPath(String hash) {
+        return CACHE_DIR.resolve(hash + ".bin");
+    }
+
+    /**
+     * Drops expired entries, then least recently used ones until the cache
+     * fits its byte cap. Caller holds the class lock.
+     */
+    private static void evict() {
+        long now = System.currentTimeMillis();
+        index.entrySet().stream()
+                .filter(e -> now - e.getValue().createdAt > TTL_MILLIS)
+                .map(Map.Entry::getKey)
+                .toList()
+                .forEach(MediaCache::removeEntry);
+
+        while (totalBytes > MAX_BYTES && !index.isEmpty()) {
+            index.entrySet().stream()
+                    .min(Comparator.comparingLong(e -> e.getValue().lastAccess))
+                    .map(Map.Entry::getKey)
+                    .ifPresent(MediaCache::removeEntry);
+        }
+    }
+
+    /**
+     * Removes an index entry and deletes its blob once nothing points at it.
+     * Caller holds the class lock.
+     */
+    private static void removeEntry(String key) {
+        Entry removed = index.remove(key);
+        if (removed == null) return;
+
+        boolean shared = index.values().stream().anyMatch(e -> e.hash.equals(removed.hash));
+        if (shared) return;
+
+        Long size = blobs.remove(removed.hash);
+        if (size != null) totalBytes -= size;
+        try {
+            Files.deleteIfExists(blobPath(removed.hash));
+        } catch (IOException e) {
+            System.err.println("[CACHE] Failed to delete blob " + removed.hash + ": " + e.getMessage());
+        }
+    }
+
+    private static synchronized void loadIndex() {
+        try {
+            Files.createDirectories(CACHE_DIR);
+
+            // Leftovers from downloads interrupted by a restart
+            try (var files = Files.list(CACHE_DIR)) {
+                for (Path file : files.filter(f -> f.getFileName().toString().startsWith("incoming-")).toList()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+
+            if (!Files.exists(INDEX_FILE)) return;
+
+            long now = System.currentTimeMillis();
+            for (JsonNode node : objectMapper.readTree(INDEX_FILE.toFile()).path("entries")) {
+                String hash = node.path("hash").asText();
+                long size = node.path("size").asLong();
+                long createdAt = node.path("createdAt").asLong();
+                if (now - createdAt > TTL_MILLIS || !Files.exists(blobPath(hash))) continue;
+
+                String meta = node.hasNonNull("meta") ? node.get("meta").asText() : null;
+                index.put(node.path("key").asText(),
+                        new Entry(hash, size, createdAt, node.path("lastAccess").asLong(createdAt), meta));
+                if (blobs.putIfAbsent(hash, size) == null) {
+                    totalBytes += size;
+                }
+            }
+
+            evict();
+            System.out.println("[CACHE] Loaded " + index.size() + " media entries (" + (totalBytes / 1024 / 1024) + " MB)");
+        } catch (IOException e) {
+            System.err.println("[CACHE] Failed to load index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Schedules an index rewrite
+     */
+    private static void saveIndex() {
+        indexSaver.request();
+    }
+
+    /**
+     * Writes a pending index change now; called on shutdown
+     */
+    public static void flush() {
+        indexSaver.flush();
+    }
+
+    /**
+     * Writes the index atomically, from a snapshot taken under the class lock
+     */
+    private static void writeIndex() {
+        ObjectNode root = objectMapper.createObjectNode();
+        ArrayNode entries = root.putArray("entries");
+        synchronized (MediaCache.class) {
+            index.forEach((key, entry) -> entries.addObject()
+                    .put("key", key)
+                    .put("hash", entry.hash)
+                    .put("size", entry.size)
+                    .put("createdAt", entry.createdAt)
+                    .put("lastAccess", entry.lastAccess)
+                    .put("meta", entry.meta));
+        }
+
+        try {
+            Path temp = CACHE_DIR.resolve("index.json.tmp");
+            objectMapper.writeValue(temp.toFile(), root);
+            Files.move(temp, INDEX_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("[CACHE] Failed to save index: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,693 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.utils.FileUpload;
+import org.apache.hc.client5.http.HttpResponseException;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
+import org.apache.hc.client5.http.async.methods.SimpleRequestProducer;
+import org.apache.hc.core5.concurrent.FutureCallback;
+import org.apache.hc.core5.http.EntityDetails;
+import org.apache.hc.core5.http.Header;
+import org.apache.hc.core5.http.HttpResponse;
+import org.apache.hc.core5.http.nio.AsyncResponseConsumer;
+import org.apache.hc.core5.http.nio.CapacityChannel;
+import org.apache.hc.core5.http.nio.support.classic.SharedInputBuffer;
+import org.apache.hc.core5.http.protocol.HttpContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Shared media download code for the downloader handlers.
+ * Media is relayed from the CDN to the Discord upload through a small fixed
+ * buffer, so heap use per download does not grow with the file size.
+ */
+public class MediaDownloader {
+
+    private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/133.0.0.0 Safari/537.36";
+    private static final int RELAY_BUFFER_SIZE = 64 * 1024;
+    private static final int UPLOAD_RETRIES = 2;
+
+    // Downloads currently running, by cache key
+    private static final Map<String, CompletableFuture<Void>> inFlightDownloads = new ConcurrentHashMap<>();
+
+    /**
+     * An open media response. The body is read by whoever consumes it (usually
+     * the JDA upload), and closing it early aborts the download.
+     */
+    public static class MediaStream implements Closeable {
+        private final int status;
+        private final long contentLength;
+        private final String contentType;
+        private final RelayInputStream body;
+
+        private MediaStream(int status, long contentLength, String contentType, RelayInputStream body) {
+            this.status = status;
+            this.contentLength = contentLength;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        public int getStatus() { return status; }
+        public long getContentLength() { return contentLength; }
+        public String getContentType() { return contentType; }
+        public InputStream getBody() { return body; }
+
+        /**
+         * Wraps the body for a Discord upload. A supplied stream is copied
+         * into the request as it is read, where a plain InputStream would be
+         * buffered into one byte array first. The body can only be read once,
+         * so a repeated attempt fails instead of sending an empty file.
+         */
+        public FileUpload toFileUpload(String fileName) {
+            AtomicBoolean supplied = new AtomicBoolean();
+            return FileUpload.fromStreamSupplier(fileName, () -> {
+                if (!supplied.compareAndSet(false, true)) {
+                    throw new UncheckedIOException(new IOException("Media stream was already uploaded"));
+                }
+                return body;
+            });
+        }
+
+        /**
+         * Copies every byte read from the body into a cache writer
+         */
+        void cacheTo(MediaCache.Writer writer) {
+            body.cacheWriter = writer;
+        }
+
+        /**
+         * Writes every byte read from the body into a journaled job's part
+         * file, starting at offset. Total is the full media size, or -1.
+         */
+        void journalTo(DownloadJournal.Job job, long offset, long total) {
+            if (job == null) return;
+            job.begin(offset, total);
+            body.journal = job;
+        }
+
+        /**
+         * Reports bytes read from the body to a reply's progress display
+         */
+        void reportTo(MediaReply reply) {
+            body.progress = reply;
+            body.total = contentLength;
+        }
+
+        @Override
+        public void close() {
+            body.close();
+        }
+    }
+
+    /**
+     * Gets the largest attachment the bot may upload to a guild, which
+     * depends on its boost tier. Outside a guild Discord's default applies.
+     */
+    public static long getUploadLimit(Guild guild) {
+        return guild != null ? guild.getMaxFileSize() : Message.MAX_FILE_SIZE;
+    }
+
+    /**
+     * Opens a streaming GET. The future completes once the response headers
+     * arrive; the body is delivered as it is read.
+     */
+    public static CompletableFuture<MediaStream> open(String url) {
+        return open(url, 0);
+    }
+
+    /**
+     * Opens a streaming GET from a byte offset with a Range request. Servers
+     * that honour it answer 206 with the rest of the file; others answer 200
+     * with all of it.
+     */
+    public static CompletableFuture<MediaStream> open(String url, long offset) {
+        var builder = SimpleRequestBuilder.get(url)
+                .setHeader("User-Agent", USER_AGENT);
+        if (offset > 0) {
+            builder.setHeader("Range", "bytes=" + offset + "-");
+        }
+        var request = builder.build();
+
+        CompletableFuture<MediaStream> result = new CompletableFuture<>();
+        RelayInputStream body = new RelayInputStream(new SharedInputBuffer(RELAY_BUFFER_SIZE));
+        RelayConsumer consumer = new RelayConsumer(result, body);
+
+        Future<Void> exchange = HttpHandler.executeAsync(SimpleRequestProducer.create(request), consumer,
+                new FutureCallback<>() {
+                    @Override
+                    public void completed(Void ignored) {
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        body.fail(ex);
+                        result.completeExceptionally(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        IOException cancelled = new IOException("Media download cancelled");
+                        body.fail(cancelled);
+                        result.completeExceptionally(cancelled);
+                    }
+                });
+        body.exchange = exchange;
+        return result;
+    }
+
+    /**
+     * Reads the announced size of a media URL from its GET response headers
+     * and cancels the exchange before the body. Returns -1 when the size is unknown.
+     */
+    public static CompletableFuture<Long> probeSize(String url) {
+        return open(url).thenApply(media -> {
+            media.close();
+            return media.getContentLength();
+        });
+    }
+
+    /**
+     * Thrown when media turns out to be larger than the upload limit. The
+     * download is aborted as soon as that is known.
+     */
+    public static class MediaTooLargeException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        private final long size;
+
+        public MediaTooLargeException(long size, long limit) {
+            super("Media exceeds the upload limit of " + limit + " bytes" + (size > 0 ? " (" + size + " bytes)" : ""));
+            this.size = size;
+        }
+
+        /**
+         * Gets the announced size, or -1 when the limit was hit mid-download
+         */
+        public long getSize() {
+            return size;
+        }
+    }
+
+    /**
+     * Checks whether a failed stage failed because the media was too large,
+     * either before the upload or when Discord rejected it (40005)
+     */
+    public static boolean isTooLarge(Throwable error) {
+        Throwable cause = HttpHandler.rootCause(error);
+        return cause instanceof MediaTooLargeException
+                || (cause instanceof ErrorResponseException e
+                        && e.getErrorResponse() == ErrorResponse.REQUEST_ENTITY_TOO_LARGE);
+    }
+
+    /**
+     * Downloads media and sends it through the reply with the given content, deciding
+     * from the GET response headers whether it fits under maxBytes. Media over
+     * the limit fails with {@link MediaTooLargeException} before its body is read.
+     * Known-length media is relayed straight into the upload; if that upload
+     * fails for a reason worth retrying, the media is fetched again into a spool
+     * and re-sent from it. Media without a Content-Length is spooled up to the limit.
+     * With a cache key, a successful upload also stores the file in the media cache,
+     * and callers asking for the same key meanwhile wait for it instead of
+     * downloading the same file again. Download progress is reported to the reply.
+     * Downloads are journaled, so one cut off by a restart is resumed and
+     * delivered to the reply's channel on the next start.
+     */
+    public static CompletableFuture<Message> upload(String url, String fileName, long maxBytes,
+                                                    MediaCache.Key cacheKey, MediaReply reply, String content) {
+        // Every upload of a keyed file is remembered, so repeats can come from Discord's CDN
+        return uploadOnce(url, fileName, maxBytes, cacheKey, reply, content)
+                .whenComplete((message, error) -> {
+                    if (error == null) AttachmentIndex.remember(cacheKey, message);
+                });
+    }
+
+    private static CompletableFuture<Message> uploadOnce(String url, String fileName, long maxBytes,
+                                                         MediaCache.Key cacheKey, MediaReply reply, String content) {
+        Function<FileUpload, RestAction<Message>> send = file -> reply.send(content, List.of(file));
+        if (cacheKey == null || !MediaCache.isEnabled()) {
+            return journaledFetchAndUpload(url, fileName, maxBytes, cacheKey, reply, content, send);
+        }
+
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> leader = inFlightDownloads.putIfAbsent(cacheKey.value(), done);
+        if (leader != null) {
+            // Reuse the leader's cached copy once it lands, or fetch alone if it didn't
+            return leader.thenCompose(ignored -> {
+                MediaCache.CachedMedia cached = MediaCache.lookup(cacheKey);
+                return cached != null && cached.size() <= maxBytes
+                        ? send.apply(cached.toFileUpload(fileName)).submit()
+                        : journaledFetchAndUpload(url, fileName, maxBytes, cacheKey, reply, content, send);
+            });
+        }
+
+        return journaledFetchAndUpload(url, fileName, maxBytes, cacheKey, reply, content, send)
+                .whenComplete((message, error) -> {
+                    inFlightDownloads.remove(cacheKey.value(), done);
+                    done.complete(null);
+                });
+    }
+
+    /**
+     * Sends media the bot already has, without asking the downloader API: a
+     * file from the local media cache, or else a refetch of the bot's earlier
+     * upload from Discord's CDN. Falls back to resolve when neither exists or
+     * works. The content is built from the cached meta; returning null from
+     * content means that entry can't be used.
+     */
+    public static CompletableFuture<Message> deliver(MediaCache.Key cacheKey, String fileName, long maxBytes,
+                                                     MediaReply reply, Function<String, String> content,
+                                                     Supplier<CompletableFuture<Message>> resolve) {
+        MediaCache.CachedMedia cached = MediaCache.lookup(cacheKey);
+        String cachedContent = cached != null && cached.size() <= maxBytes ? content.apply(cached.meta()) : null;
+        if (cachedContent != null) {
+            return reply.send(cachedContent, List.of(cached.toFileUpload(fileName))).submit()
+                    .exceptionallyCompose(e -> resolve.get());
+        }
+
+        AttachmentIndex.Attachment attachment = AttachmentIndex.lookup(cacheKey);
+        String attachmentContent = attachment != null && attachment.size() <= maxBytes
+                ? content.apply(attachment.meta())
+                : null;
+        if (attachmentContent != null) {
+            return upload(attachment.url(), fileName, maxBytes, cacheKey.withMeta(attachment.meta()), reply, attachmentContent)
+                    .exceptionallyCompose(error -> {
+                        System.err.println("[MEDIA] Reusing the earlier upload failed: "
+                                + HttpHandler.rootCause(error).getMessage());
+                        AttachmentIndex.forget(cacheKey);
+                        return resolve.get();
+                    });
+        }
+
+        return resolve.get();
+    }
+
+    /**
+     * One item of a multi-item post. The file name's extension is replaced to
+     * match the content type the CDN reports.
+     */
+    public record MediaItem(String url, String fileName) {}
+
+    /**
+     * The outcome of fetching one item: its spooled media, or the error that
+     * stopped it. The caller owns the spool and must close it.
+     */
+    public record FetchedMedia(MediaItem item, MediaSpool.SpooledMedia media, Throwable error) {
+        public boolean isTooLarge() {
+            return error != null && MediaDownloader.isTooLarge(error);
+        }
+
+        /**
+         * Wraps the spooled media for an upload, named after its content type
+         */
+        public FileUpload toFileUpload() {
+            return media.toFileUpload(fileNameFor(item.fileName(), media.getContentType()));
+        }
+    }
+
+    /**
+     * Fetches several items in parallel, each spooled up to maxBytes. Completes
+     * once every item has finished, with one result per item in the same order.
+     */
+    public static CompletableFuture<List<FetchedMedia>> fetchAll(List<MediaItem> items, long maxBytes) {
+        List<CompletableFuture<MediaSpool.SpooledMedia>> fetches = items.stream()
+                .map(item -> open(item.url()).thenCompose(media -> {
+                    if (media.getContentLength() > maxBytes) {
+                        media.close();
+                        return CompletableFuture.<MediaSpool.SpooledMedia>failedFuture(
+                                new MediaTooLargeException(media.getContentLength(), maxBytes));
+                    }
+                    return MediaSpool.spool(media, maxBytes);
+                }))
+                .toList();
+
+        return CompletableFuture.allOf(fetches.stream()
+                        .map(fetch -> fetch.handle((spooled, error) -> null))
+                        .toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> {
+                    List<FetchedMedia> results = new ArrayList<>();
+                    for (int i = 0; i < items.size(); i++) {
+                        CompletableFuture<MediaSpool.SpooledMedia> fetch = fetches.get(i);
+                        results.add(fetch.state() == Future.State.SUCCESS
+                                ? new FetchedMedia(items.get(i), fetch.resultNow(), null)
+                                : new FetchedMedia(items.get(i), null, HttpHandler.rootCause(fetch.exceptionNow())));
+                    }
+                    return results;
+                });
+    }
+
+    /**
+     * Fetches several items in parallel and sends them in one message. Each
+     * item is spooled up to maxBytes, then items are attached in order while
+     * their total stays under maxBytes. Items that don't fit or fail are passed
+     * to the send action by URL so it can link them instead. Fails only when
+     * nothing could be fetched at all.
+     */
+    public static CompletableFuture<Message> uploadAll(List<MediaItem> items, long maxBytes,
+                                                       BiFunction<List<FileUpload>, List<String>, RestAction<Message>> send) {
+        return fetchAll(items, maxBytes).thenCompose(fetched -> {
+            List<MediaSpool.SpooledMedia> attached = new ArrayList<>();
+            List<FileUpload> files = new ArrayList<>();
+            List<String> skipped = new ArrayList<>();
+            Throwable firstError = null;
+            long total = 0;
+
+            for (FetchedMedia result : fetched) {
+                if (result.media() == null) {
+                    if (!result.isTooLarge() && firstError == null) firstError = result.error();
+                    skipped.add(result.item().url());
+                    continue;
+                }
+
+                MediaSpool.SpooledMedia spooled = result.media();
+                if (total + spooled.getSize() > maxBytes) {
+                    spooled.close();
+                    skipped.add(result.item().url());
+                    continue;
+                }
+                total += spooled.getSize();
+                attached.add(spooled);
+                files.add(result.toFileUpload());
+            }
+
+            if (files.isEmpty() && firstError != null) {
+                return CompletableFuture.failedFuture(firstError);
+            }
+            return send.apply(files, skipped).submit()
+                    .whenComplete((message, error) -> attached.forEach(MediaSpool.SpooledMedia::close));
+        });
+    }
+
+    /**
+     * Swaps a file name's extension for one matching the content type
+     */
+    private static String fileNameFor(String fileName, String contentType) {
+        if (contentType == null) return fileName;
+
+        String type = contentType.split(";")[0].trim().toLowerCase();
+        String extension = switch (type) {
+            case "image/jpeg", "image/jpg" -> "jpg";
+            case "image/png" -> "png";
+            case "image/webp" -> "webp";
+            case "image/gif" -> "gif";
+            case "video/mp4" -> "mp4";
+            case "video/webm" -> "webm";
+            default -> null;
+        };
+        if (extension == null) return fileName;
+
+        int dot = fileName.lastIndexOf('.');
+        return (dot > 0 ? fileName.substring(0, dot) : fileName) + "." + extension;
+    }
+
+    private static CompletableFuture<Message> journaledFetchAndUpload(String url, String fileName, long maxBytes,
+                                                                      MediaCache.Key cacheKey, MediaReply reply,
+                                                                      String content,
+                                                                      Function<FileUpload, RestAction<Message>> send) {
+        DownloadJournal.Job job = DownloadJournal.start(reply.channelId(), content, url, fileName, maxBytes, cacheKey);
+        return fetchAndUpload(url, fileName, maxBytes, cacheKey, reply, job, send)
+                .whenComplete((message, error) -> {
+                    if (job == null) return;
+                    if (error == null) job.complete();
+                    else job.discard();
+                });
+    }
+
+    private static CompletableFuture<Message> fetchAndUpload(String url, String fileName, long maxBytes,
+                                                             MediaCache.Key cacheKey, MediaReply reply,
+                                                             DownloadJournal.Job job,
+                                                             Function<FileUpload, RestAction<Message>> send) {
+        // Continue off the I/O reactor: setting up the journal and cache files blocks on the disk
+        return open(url).thenComposeAsync(media -> {
+            media.reportTo(reply);
+            long contentLength = media.getContentLength();
+            if (contentLength > maxBytes) {
+                media.close();
+                return CompletableFuture.failedFuture(new MediaTooLargeException(contentLength, maxBytes));
+            }
+            media.journalTo(job, 0, contentLength);
+            if (contentLength < 0) {
+                return uploadSpooled(media, fileName, maxBytes, cacheKey, job, send);
+            }
+
+            return uploadStreamed(media, fileName, cacheKey, job, send).exceptionallyCompose(error -> {
+                if (!isRetryable(HttpHandler.rootCause(error))) {
+                    return CompletableFuture.failedFuture(error);
+                }
+                System.err.println("[MEDIA] Streamed upload failed, retrying from spool: "
+                        + HttpHandler.rootCause(error).getMessage());
+                return open(url).thenComposeAsync(retry -> {
+                    retry.reportTo(reply);
+                    retry.journalTo(job, 0, retry.getContentLength());
+                    return uploadSpooled(retry, fileName, maxBytes, cacheKey, job, send);
+                }, MediaSpool.IO_EXECUTOR);
+            });
+        }, MediaSpool.IO_EXECUTOR);
+    }
+
+    private static CompletableFuture<Message> uploadStreamed(MediaStream media, String fileName,
+                                                             MediaCache.Key cacheKey, DownloadJournal.Job job,
+                                                             Function<FileUpload, RestAction<Message>> send) {
+        // A journaled download is cached from its part file instead of a second copy
+        MediaCache.Writer cacheWriter = cacheKey != null && job == null
+                ? MediaCache.newWriter(cacheKey, media.getContentLength())
+                : null;
+        if (cacheWriter != null) media.cacheTo(cacheWriter);
+
+        // The cache commit moves files, so it runs on the I/O executor rather than JDA's callback pool
+        return send.apply(media.toFileUpload(fileName)).submit()
+                .whenCompleteAsync((message, error) -> {
+                    media.close();
+                    if (error == null) cacheJournaled(cacheKey, job);
+                    if (cacheWriter == null) return;
+                    if (error == null) cacheWriter.commit();
+                    else cacheWriter.discard();
+                }, MediaSpool.IO_EXECUTOR);
+    }
+
+    private static CompletableFuture<Message> uploadSpooled(MediaStream media, String fileName, long maxBytes,
+                                                            MediaCache.Key cacheKey, DownloadJournal.Job job,
+                                                            Function<FileUpload, RestAction<Message>> send) {
+        // Copying the spool into the cache runs on the I/O executor rather than JDA's callback pool
+        return MediaSpool.spool(media, maxBytes)
+                .thenCompose(spooled -> sendSpooled(spooled, fileName, send, UPLOAD_RETRIES)
+                        .whenCompleteAsync((message, error) -> {
+                            if (error == null && job != null) {
+                                cacheJournaled(cacheKey, job);
+                            } else if (error == null && cacheKey != null) {
+                                try {
+                                    MediaCache.put(cacheKey, spooled.openStream());
+                                } catch (IOException ioError) {
+                                    System.err.println("[MEDIA] Failed to cache spooled media: " + ioError.getMessage());
+                                }
+                            }
+                            spooled.close();
+                        }, MediaSpool.IO_EXECUTOR));
+    }
+
+    /**
+     * Hands the part file of a delivered journaled download to the cache
+     */
+    private static void cacheJournaled(MediaCache.Key cacheKey, DownloadJournal.Job job) {
+        if (cacheKey == null || job == null || !MediaCache.isEnabled()) return;
+        Path part = job.release();
+        if (part != null) MediaCache.adopt(cacheKey, part);
+    }
+
+    private static CompletableFuture<Message> sendSpooled(MediaSpool.SpooledMedia spooled, String fileName,
+                                                          Function<FileUpload, RestAction<Message>> send,
+                                                          int attemptsLeft) {
+        return send.apply(spooled.toFileUpload(fileName)).submit()
+                .exceptionallyCompose(error -> attemptsLeft > 1 && isRetryable(HttpHandler.rootCause(error))
+                        ? sendSpooled(spooled, fileName, send, attemptsLeft - 1)
+                        : CompletableFuture.failedFuture(error));
+    }
+
+    /**
+     * Discord rejections such as an oversized file won't change on retry,
+     * but transport and server errors might.
+     */
+    private static boolean isRetryable(Throwable error) {
+        if (error instanceof HttpResponseException || error instanceof MediaTooLargeException) return false;
+        if (error instanceof ErrorResponseException discordError) return discordError.isServerError();
+        return true;
+    }
+
+    /**
+     * Hands the response to the caller as soon as headers arrive and feeds
+     * the body into the shared buffer. The exchange only completes at the end
+     * of the stream, so it stays cancellable while the body is relayed.
+     */
+    private static class RelayConsumer implements AsyncResponseConsumer<Void> {
+        private final CompletableFuture<MediaStream> result;
+        private final RelayInputStream body;
+        private volatile FutureCallback<Void> resultCallback;
+
+        RelayConsumer(CompletableFuture<MediaStream> result, RelayInputStream body) {
+            this.result = result;
+            this.body = body;
+        }
+
+        @Override
+        public void consumeResponse(HttpResponse response, EntityDetails entityDetails, HttpContext context,
+                                    FutureCallback<Void> resultCallback) throws IOException {
+            if (response.getCode() >= 300) {
+                throw new HttpResponseException(response.getCode(), "Media request failed: " + response.getReasonPhrase());
+            }
+
+            this.resultCallback = resultCallback;
+            long contentLength = entityDetails != null ? entityDetails.getContentLength() : 0;
+            String contentType = entityDetails != null ? entityDetails.getContentType() : null;
+            result.complete(new MediaStream(response.getCode(), contentLength, contentType, body));
+
+            if (entityDetails == null) {
+                body.buffer.markEndStream();
+                resultCallback.completed(null);
+            }
+        }
+
+        @Override
+        public void informationResponse(HttpResponse response, HttpContext context) {
+        }
+
+        @Override
+        public void updateCapacity(CapacityChannel capacityChannel) throws IOException {
+            body.buffer.updateCapacity(body.throttle.shape(capacityChannel));
+        }
+
+        @Override
+        public void consume(ByteBuffer src) throws IOException {
+            if (body.closed) {
+                throw new IOException("Media stream closed by reader");
+            }
+            body.throttle.received(src.remaining());
+            body.buffer.fill(src);
+        }
+
+        @Override
+        public void streamEnd(List<? extends Header> trailers) {
+            body.buffer.markEndStream();
+            if (resultCallback != null) {
+                resultCallback.completed(null);
+            }
+        }
+
+        @Override
+        public void failed(Exception cause) {
+            body.fail(cause);
+            result.completeExceptionally(cause);
+        }
+
+        @Override
+        public void releaseResources() {
+        }
+    }
+
+    /**
+     * Blocking view over the shared buffer. A failed download surfaces as an
+     * IOException instead of a silently truncated file.
+     */
+    private static class RelayInputStream extends InputStream {
+        private final SharedInputBuffer buffer;
+        private volatile Exception failure;
+        private volatile Future<?> exchange;
+        private volatile boolean closed;
+        private volatile MediaCache.Writer cacheWriter;
+        private volatile MediaReply progress;
+        private volatile DownloadJournal.Job journal;
+        private volatile long total = -1;
+        private long bytesRead;
+        private final BandwidthShaper.Throttle throttle = BandwidthShaper.newThrottle();
+
+        RelayInputStream(SharedInputBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        void fail(Exception cause) {
+            failure = cause;
+            buffer.abort();
+        }
+
+        private int checkFailure(int read) throws IOException {
+            if (read == -1) {
+                if (failure != null) {
+                    throw new IOException("Media download failed: " + failure.getMessage(), failure);
+                }
+                if (cacheWriter != null) cacheWriter.markComplete();
+            }
+            return read;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = checkFailure(buffer.read());
+            if (read != -1) {
+                if (cacheWriter != null) cacheWriter.write(new byte[]{(byte) read}, 0, 1);
+                if (journal != null) journalWrite(new byte[]{(byte) read}, 0, 1);
+                reportProgress(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = checkFailure(buffer.read(b, off, len));
+            if (read > 0) {
+                if (cacheWriter != null) cacheWriter.write(b, off, read);
+                if (journal != null) journalWrite(b, off, read);
+                reportProgress(read);
+            }
+            return read;
+        }
+
+        /**
+         * Writes to the journal, aborting the download when it passes the
+         * journal's size cap
+         */
+        private void journalWrite(byte[] b, int off, int len) throws IOException {
+            try {
+                journal.write(b, off, len);
+            } catch (MediaTooLargeException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private void reportProgress(int read) {
+            bytesRead += read;
+            if (progress != null) progress.progress(bytesRead, total);
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            throttle.close();
+
+            if (!buffer.isEndStream() || buffer.hasData()) {
+                buffer.abort();
+                if (exchange != null) {
+                    exchange.cancel(true);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
+import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.utils.FileUpload;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Where a download result goes: a new channel message for prefix commands,
+ * or the deferred reply for the slash command. Replies may also show
+ * progress while the download runs.
+ */
+public interface MediaReply {
+
+    /**
+     * Builds the action that delivers the result
+     */
+    RestAction<Message> send(String content, List<FileUpload> files);
+
+    default RestAction<Message> send(String content) {
+        return send(content, List.of());
+    }
+
+    /**
+     * Shows a short status line such as "Resolving..."
+     */
+    default void status(String status) {
+    }
+
+    /**
+     * Reports download progress; total is -1 when the size is unknown
+     */
+    default void progress(long bytesRead, long total) {
+    }
+
+    /**
+     * Gets the channel a download interrupted by a restart is delivered to,
+     * or null if it shouldn't be resumed
+     */
+    default String channelId() {
+        return null;
+    }
+
+    /**
+     * Replies with a new message in the channel, without pinging anyone
+     */
+    static MediaReply toChannel(MessageChannel channel) {
+        return new MediaReply() {
+            @Override
+            public RestAction<Message> send(String content, List<FileUpload> files) {
+                return channel.sendMessage(content)
+                        .setFiles(files)
+                        .setAllowedMentions(Collections.emptyList());
+            }
+
+            @Override
+            public String channelId() {
+                return channel.getId();
+            }
+        };
+    }
+
+    /**
+     * Replies through the deferred interaction response, with progress edits
+     * limited to one per second to stay inside rate limits. JDA sends edits
+     * of one message one at a time, so while a file streams into an edit of
+     * the response no progress edit could get through. Files therefore go in
+     * a follow-up message once the response shows a status, and the status
+     * response is deleted when the follow-up has been sent.
+     */
+    static MediaReply toHook(InteractionHook hook) {
+        return new HookReply(hook);
+    }
+
+    final class HookReply implements MediaReply {
+        private static final long PROGRESS_INTERVAL_MS = 1000;
+
+        private final InteractionHook hook;
+        private final AtomicLong lastEdit = new AtomicLong();
+        private final AtomicBoolean finished = new AtomicBoolean();
+        private volatile boolean shown;
+        private volatile boolean uploading;
+
+        private HookReply(InteractionHook hook) {
+            this.hook = hook;
+        }
+
+        @Override
+        public RestAction<Message> send(String content, List<FileUpload> files) {
+            if (files.isEmpty() || !shown) {
+                // Status edits queued after this one would overwrite it, and are dropped once it lands.
+                // While the response still shows "thinking", a follow-up would replace it instead.
+                return hook.editOriginal(content)
+                        .setFiles(files)
+                        .setAllowedMentions(Collections.emptyList())
+                        .onSuccess(message -> finished.set(true));
+            }
+
+            return hook.sendMessage(content)
+                    .setFiles(files)
+                    .setAllowedMentions(Collections.emptyList())
+                    .onSuccess(message -> {
+                        finished.set(true);
+                        hook.deleteOriginal().queue(null, t -> {});
+                    });
+        }
+
+        @Override
+        public void status(String status) {
+            edit(status, true);
+        }
+
+        @Override
+        public String channelId() {
+            // The interaction token is gone after a restart, so the channel gets a new message
+            return hook.getInteraction().getChannelId();
+        }
+
+        @Override
+        public void progress(long bytesRead, long total) {
+            if (uploading) return;
+
+            if (total > 0 && bytesRead >= total) {
+                uploading = true;
+                edit("⬆️ Uploading...", true);
+            } else if (total > 0) {
+                edit(String.format("⬇️ Downloading %d%%", bytesRead * 100 / total), false);
+            } else {
+                edit(String.format("⬇️ Downloading %.1f MB", bytesRead / (1024.0 * 1024.0)), false);
+            }
+        }
+
+        private void edit(String status, boolean force) {
+            if (finished.get()) return;
+
+            long now = System.currentTimeMillis();
+            long last = lastEdit.get();
+            if (force) {
+                lastEdit.set(now);
+            } else if (now - last < PROGRESS_INTERVAL_MS || !lastEdit.compareAndSet(last, now)) {
+                return;
+            }
+
+            // Checked again when JDA runs the edit, which may be after the result was sent
+            hook.editOriginal(status)
+                    .setCheck(() -> !finished.get())
+                    .queue(message -> shown = true, t -> {});
+        }
+    }
+}
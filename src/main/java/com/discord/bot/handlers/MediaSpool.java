@@ -0,0 +1,171 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.utils.FileUpload;
+import com.discord.bot.utils.Settings;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Holds a complete media download so it can be read more than once,
+ * for example to retry a failed upload. Small files stay in memory while
+ * the global budget allows it; everything else is spilled to a temp file.
+ */
+public class MediaSpool {
+
+    private static final long MB = 1024 * 1024;
+    private static final long MEMORY_BUDGET = Settings.getLong("MEDIA_MEMORY_BUDGET_MB", 64) * MB;
+    private static final long MEMORY_THRESHOLD = Settings.getLong("MEDIA_SPOOL_THRESHOLD_MB", 8) * MB;
+    private static final long TRANSFER_CHUNK = 8 * MB;
+
+    private static final AtomicLong memoryInUse = new AtomicLong();
+
+    // Spooling blocks on the relay stream and cache writes block on the disk, so both
+    // stay off the I/O reactor and JDA's callback pool
+    static final ExecutorService IO_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "media-io");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A spooled download, backed by either a byte array or a temp file.
+     * Closing it releases the memory reservation or deletes the file.
+     */
+    public static class SpooledMedia implements Closeable {
+        private final byte[] data;
+        private final Path file;
+        private final long size;
+        private final String contentType;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        private SpooledMedia(byte[] data, Path file, long size, String contentType) {
+            this.data = data;
+            this.file = file;
+            this.size = size;
+            this.contentType = contentType;
+        }
+
+        public long getSize() { return size; }
+        public String getContentType() { return contentType; }
+        public boolean isOnDisk() { return file != null; }
+        public Path getFile() { return file; }
+
+        /**
+         * Opens a fresh stream over the spooled content
+         */
+        public InputStream openStream() throws IOException {
+            if (file == null) return new ByteArrayInputStream(data);
+            return Channels.newInputStream(FileChannel.open(file, StandardOpenOption.READ));
+        }
+
+        /**
+         * Wraps the content for a Discord upload. Every attempt reads a new,
+         * bandwidth-shaped stream.
+         */
+        public FileUpload toFileUpload(String fileName) {
+            return FileUpload.fromStreamSupplier(fileName, () -> {
+                try {
+                    return BandwidthShaper.shape(openStream());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+
+        @Override
+        public void close() {
+            if (!closed.compareAndSet(false, true)) return;
+
+            if (file == null) {
+                memoryInUse.addAndGet(-size);
+                return;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                System.err.println("[SPOOL] Failed to delete " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Drains an open media stream into a spool on a worker thread. The stream
+     * is closed once it has been read, or as soon as it passes maxBytes.
+     */
+    public static CompletableFuture<SpooledMedia> spool(MediaDownloader.MediaStream media, long maxBytes) {
+        return CompletableFuture.supplyAsync(() -> {
+            try (media) {
+                return spoolNow(media.getBody(), media.getContentLength(), media.getContentType(), maxBytes);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }, IO_EXECUTOR);
+    }
+
+    private static SpooledMedia spoolNow(InputStream body, long contentLength, String contentType,
+                                         long maxBytes) throws IOException {
+        // Keep small, known-length files in memory while the budget allows it
+        if (contentLength > 0 && contentLength <= MEMORY_THRESHOLD && reserveMemory(contentLength)) {
+            try {
+                byte[] data = body.readNBytes((int) contentLength);
+                if (data.length == contentLength && body.read() == -1) {
+                    return new SpooledMedia(data, null, contentLength, contentType);
+                }
+                throw new IOException("Media length did not match Content-Length");
+            } catch (IOException | RuntimeException e) {
+                memoryInUse.addAndGet(-contentLength);
+                throw e;
+            }
+        }
+
+        Path file = Files.createTempFile("media-spool-", ".tmp");
+        try (ReadableByteChannel source = Channels.newChannel(body);
+             FileChannel target = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            long size = 0;
+            long transferred;
+            // Never read more than one byte past the limit
+            while ((transferred = target.transferFrom(source, size, Math.min(TRANSFER_CHUNK, maxBytes + 1 - size))) > 0) {
+                size += transferred;
+                if (size > maxBytes) {
+                    throw new MediaDownloader.MediaTooLargeException(-1, maxBytes);
+                }
+            }
+            return new SpooledMedia(null, file, size, contentType);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private static boolean reserveMemory(long bytes) {
+        long current;
+        do {
+            current = memoryInUse.get();
+            if (current + bytes > MEMORY_BUDGET) return false;
+        } while (!memoryInUse.compareAndSet(current, current + bytes));
+        return true;
+    }
+
+    /**
+     * Gets the bytes currently held in memory by spooled downloads
+     */
+    public static long getMemoryInUse() {
+        return memoryInUse.get();
+    }
+}
@@ -0,0 +1,39 @@
+package com.discord.bot.handlers;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs tasks on virtual threads, one at a time per key and in the order
+ * they were submitted; tasks of different keys run in parallel. A key's
+ * chain is dropped once nothing is queued behind it.
+ */
+public class OrderedExecutor {
+
+    private final Map<Long, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    public OrderedExecutor(String threadPrefix) {
+        this.executor = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(threadPrefix, 0).factory());
+    }
+
+    /**
+     * Runs the task after every task submitted earlier for the same key
+     */
+    public void execute(long key, Runnable task) {
+        CompletableFuture<Void> next = tails.compute(key, (id, tail) -> tail == null
+                ? CompletableFuture.runAsync(task, executor)
+                : tail.thenRunAsync(task, executor));
+        next.whenComplete((result, error) -> tails.remove(key, next));
+    }
+
+    /**
+     * Runs the task right away, outside any key's order
+     */
+    public void execute(Runnable task) {
+        executor.execute(task);
+    }
+}
@@ -0,0 +1,92 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+
+/**
+ * Routes prefix commands in one pass over the raw message content. Messages
+ * without the prefix are rejected on their first characters; commands are
+ * then matched through a trie, longest first, so "f.geminipropreview" wins
+ * over "f.geminipro". Handlers read the display content themselves, so
+ * mentions are only resolved for messages that are actually commands.
+ */
+public class PrefixRouter {
+
+    private static final class Node {
+        final Map<Character, Node> children = new HashMap<>();
+        Consumer<MessageReceivedEvent> handler;
+        String command;
+        boolean exact;
+    }
+
+    private final String prefix;
+    private final Node root = new Node();
+    private BiPredicate<String, MessageReceivedEvent> guard;
+
+    public PrefixRouter(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /**
+     * Routes messages starting with prefix + command, like startsWith
+     */
+    public PrefixRouter on(String command, Consumer<MessageReceivedEvent> handler) {
+        return add(command, handler, false);
+    }
+
+    /**
+     * Routes messages that are exactly prefix + command, ignoring trailing whitespace
+     */
+    public PrefixRouter onExact(String command, Consumer<MessageReceivedEvent> handler) {
+        return add(command, handler, true);
+    }
+
+    /**
+     * Runs before every matched handler with the full command, like "f.yt".
+     * When it returns false the message is dropped as handled.
+     */
+    public PrefixRouter guard(BiPredicate<String, MessageReceivedEvent> guard) {
+        this.guard = guard;
+        return this;
+    }
+
+    private PrefixRouter add(String command, Consumer<MessageReceivedEvent> handler, boolean exact) {
+        Node node = root;
+        for (int i = 0; i < command.length(); i++) {
+            node = node.children.computeIfAbsent(command.charAt(i), c -> new Node());
+        }
+        node.handler = handler;
+        node.command = prefix + command;
+        node.exact = exact;
+        return this;
+    }
+
+    /**
+     * Runs the handler of the longest matching command. Returns false when
+     * the message isn't a known command.
+     */
+    public boolean route(MessageReceivedEvent event) {
+        String raw = event.getMessage().getContentRaw();
+        if (!raw.startsWith(prefix)) return false;
+
+        Node node = root;
+        Node match = null;
+        for (int i = prefix.length(); i < raw.length(); i++) {
+            node = node.children.get(raw.charAt(i));
+            if (node == null) break;
+            if (node.handler != null && (!node.exact || raw.substring(i + 1).isBlank())) {
+                match = node;
+            }
+        }
+
+        if (match == null) return false;
+        if (guard == null || guard.test(match.command, event)) {
+            match.handler.accept(event);
+        }
+        return true;
+    }
+}
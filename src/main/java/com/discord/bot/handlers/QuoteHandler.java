@@ -4,8 +4,6 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ClassicHttpResponse;
 import org.apache.hc.core5.http.io.entity.EntityUtils;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -39,10 +37,10 @@ public class QuoteHandler {
      * Fetches Quote of the Day from ZenQuotes API
      */
     public static Quote getQuoteOfTheDay() {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
+        try {
             var request = new HttpGet("https://zenquotes.io/api/random");
 
-            try (ClassicHttpResponse response = client.execute(request)) {
+            try (ClassicHttpResponse response = HttpHandler.getClient().execute(request)) {
                 String jsonResponse = EntityUtils.toString(response.getEntity());
                 JsonNode jsonArray = objectMapper.readTree(jsonResponse);
 
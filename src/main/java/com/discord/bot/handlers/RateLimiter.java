@@ -0,0 +1,211 @@
+package com.discord.bot.handlers;
+
+import com.discord.bot.utils.Settings;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Token buckets for expensive commands, per user, per channel and per guild.
+ * A command costs tokens from all three buckets and runs only if each has
+ * enough; buckets refill continuously. Each bucket is a single atomic
+ * timestamp (the moment it would be full again), updated with CAS, so the
+ * check takes no locks.
+ * <p>
+ * Limits are "tokens/seconds" in RATE_LIMIT_USER, RATE_LIMIT_CHANNEL and
+ * RATE_LIMIT_GUILD, and can be set for one guild with a "_guildId" suffix,
+ * like RATE_LIMIT_USER_123456789. Costs are in RATE_LIMIT_COSTS as
+ * "f.yt=2,/aichat=3"; commands without a cost are not limited. Commands
+ * outside a guild are charged to the user and channel buckets only.
+ */
+public class RateLimiter {
+
+    private static final Map<String, Integer> DEFAULT_COSTS = Map.ofEntries(
+            Map.entry("f.geminipropreview", 3),
+            Map.entry("f.geminipro", 3),
+            Map.entry("f.geminiflash", 1),
+            Map.entry("f.llama", 2),
+            Map.entry("f.deepseek-r1", 3),
+            Map.entry("f.ai", 1),
+            Map.entry("f.x", 1),
+            Map.entry("f.ig", 1),
+            Map.entry("f.fb", 1),
+            Map.entry("f.tt", 1),
+            Map.entry("f.yt", 2),
+            Map.entry("/aichat", 3),
+            Map.entry("/downloader", 1),
+            Map.entry("/adzan", 1));
+
+    private static final Map<String, Integer> COSTS = parseCosts(Settings.get("RATE_LIMIT_COSTS"));
+
+    // Guild id passed for commands sent in DMs
+    public static final long NO_GUILD = 0;
+
+    private static final int MAX_BUCKETS = 10_000;
+    // Marks a bucket removed from the map; nothing can take from or refund to it
+    private static final long RETIRED = Long.MIN_VALUE;
+
+    /**
+     * Bucket size and the time it takes to refill completely
+     */
+    private record Limit(long capacity, long periodNanos) {
+        long nanosPerToken() {
+            return periodNanos / capacity;
+        }
+    }
+
+    private enum Scope { USER, CHANNEL, GUILD }
+
+    private static final Map<String, Limit> DEFAULT_LIMITS = Map.of(
+            "RATE_LIMIT_USER", new Limit(10, TimeUnit.MINUTES.toNanos(1)),
+            "RATE_LIMIT_CHANNEL", new Limit(30, TimeUnit.MINUTES.toNanos(1)),
+            "RATE_LIMIT_GUILD", new Limit(60, TimeUnit.MINUTES.toNanos(1)));
+
+    private static final Map<String, Limit> limits = new ConcurrentHashMap<>();
+    private static final Map<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private static final AtomicLong allowed = new AtomicLong();
+    private static final Map<Scope, AtomicLong> throttled = Map.of(
+            Scope.USER, new AtomicLong(), Scope.CHANNEL, new AtomicLong(), Scope.GUILD, new AtomicLong());
+
+    private static Map<String, Integer> parseCosts(String value) {
+        Map<String, Integer> costs = new HashMap<>(DEFAULT_COSTS);
+        if (value == null || value.isBlank()) return costs;
+
+        for (String pair : value.split(",")) {
+            String[] parts = pair.trim().split("=");
+            try {
+                costs.put(parts[0].trim(), Math.max(0, Integer.parseInt(parts[1].trim())));
+            } catch (RuntimeException e) {
+                System.err.println("[RATELIMIT] Invalid RATE_LIMIT_COSTS entry: " + pair);
+            }
+        }
+        return costs;
+    }
+
+    /**
+     * Gets the limit of a scope in a guild, from its guild override, the
+     * global setting or the default. Outside guilds there is no override.
+     */
+    private static Limit limitOf(Scope scope, long guildId) {
+        String key = "RATE_LIMIT_" + scope.name();
+        String override = guildId != NO_GUILD ? key + "_" + guildId : null;
+        return limits.computeIfAbsent(override != null ? override : key, id -> {
+            Limit fallback = DEFAULT_LIMITS.get(key);
+            String value = override != null ? Settings.get(override) : null;
+            if (value == null) value = Settings.get(key);
+            if (value == null) return fallback;
+
+            try {
+                String[] parts = value.split("/");
+                long capacity = Long.parseLong(parts[0].trim());
+                long seconds = Long.parseLong(parts[1].trim());
+                if (capacity < 1 || seconds < 1) throw new NumberFormatException("must be positive");
+                return new Limit(capacity, TimeUnit.SECONDS.toNanos(seconds));
+            } catch (RuntimeException e) {
+                System.err.println("[RATELIMIT] Invalid " + key + " value " + value + ", using "
+                        + fallback.capacity() + "/" + TimeUnit.NANOSECONDS.toSeconds(fallback.periodNanos()));
+                return fallback;
+            }
+        });
+    }
+
+    /**
+     * Takes the cost of a command from the user, channel and guild buckets;
+     * pass {@link #NO_GUILD} for DMs, which have no guild bucket and a user
+     * bucket shared by all DMs of that user. Returns 0 when the command may
+     * run, otherwise the milliseconds until it could. Nothing is taken from
+     * any bucket when one of them refuses.
+     */
+    public static long tryAcquire(String command, long guildId, long channelId, long userId) {
+        int cost = COSTS.getOrDefault(command, 0);
+        if (cost == 0) return 0;
+
+        long now = System.nanoTime();
+        if (buckets.size() > MAX_BUCKETS) {
+            removeFullBuckets(now);
+        }
+
+        boolean inGuild = guildId != NO_GUILD;
+        String[] keys = {inGuild ? "u" + guildId + ":" + userId : "u" + userId, "c" + channelId, "g" + guildId};
+        Scope[] scopes = inGuild ? Scope.values() : new Scope[]{Scope.USER, Scope.CHANNEL};
+        for (int i = 0; i < scopes.length; i++) {
+            long wait = take(keys[i], limitOf(scopes[i], guildId), cost, now);
+            if (wait > 0) {
+                for (int j = 0; j < i; j++) {
+                    refund(keys[j], limitOf(scopes[j], guildId), cost);
+                }
+                throttled.get(scopes[i]).incrementAndGet();
+                return Math.max(1, TimeUnit.NANOSECONDS.toMillis(wait));
+            }
+        }
+        allowed.incrementAndGet();
+        return 0;
+    }
+
+    /**
+     * Moves the bucket's full-again time forward by the cost, unless that
+     * would go past one full bucket from now. Returns the wait when it would.
+     */
+    private static long take(String key, Limit limit, int cost, long now) {
+        AtomicLong bucket = buckets.computeIfAbsent(key, id -> new AtomicLong(now));
+        long step = cost * limit.nanosPerToken();
+        while (true) {
+            long fullAt = bucket.get();
+            if (fullAt == RETIRED) {
+                // Retired by a cleanup that hasn't removed it yet; start a fresh, full bucket
+                buckets.remove(key, bucket);
+                bucket = buckets.computeIfAbsent(key, id -> new AtomicLong(now));
+                continue;
+            }
+            long next = Math.max(fullAt, now) + step;
+            long overflow = next - now - limit.periodNanos();
+            if (overflow > 0) return overflow;
+            if (bucket.compareAndSet(fullAt, next)) return 0;
+        }
+    }
+
+    /**
+     * Gives back a cost taken earlier in the same check. A bucket that is
+     * missing or retired by then was full again, so there is nothing to
+     * give back.
+     */
+    private static void refund(String key, Limit limit, int cost) {
+        AtomicLong bucket = buckets.get(key);
+        if (bucket == null) return;
+
+        long step = cost * limit.nanosPerToken();
+        while (true) {
+            long fullAt = bucket.get();
+            if (fullAt == RETIRED || bucket.compareAndSet(fullAt, fullAt - step)) return;
+        }
+    }
+
+    /**
+     * Drops buckets that are full again, as they hold no state worth
+     * keeping. A bucket is retired with a CAS from the value just checked,
+     * so one taken from meanwhile is kept, and only then removed.
+     */
+    private static void removeFullBuckets(long now) {
+        for (Map.Entry<String, AtomicLong> entry : buckets.entrySet()) {
+            AtomicLong bucket = entry.getValue();
+            long fullAt = bucket.get();
+            if (fullAt != RETIRED && fullAt <= now && bucket.compareAndSet(fullAt, RETIRED)) {
+                buckets.remove(entry.getKey(), bucket);
+            }
+        }
+    }
+
+    /**
+     * Gets allowed and throttled counts for the stats command
+     */
+    public static String getStats() {
+        long user = throttled.get(Scope.USER).get();
+        long channel = throttled.get(Scope.CHANNEL).get();
+        long guild = throttled.get(Scope.GUILD).get();
+        return String.format("Allowed: %d, throttled: %d (user %d, channel %d, guild %d)",
+                allowed.get(), user + channel + guild, user, channel, guild);
+    }
+}
@@ -0,0 +1,88 @@
+package com.discord.bot.handlers;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.discord.bot.utils.Settings;
+
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Short-lived cache of downloader API responses (media URLs, titles,
+ * thumbnails), keyed by the canonical source URL. Concurrent misses share
+ * one API call, and retries or repeat links within the TTL reuse the
+ * response instead of calling the API again.
+ */
+public class ResolveCache {
+
+    private static final long TTL_MILLIS = Settings.getLong("RESOLVE_CACHE_TTL_MINUTES", 30) * 60 * 1000;
+    private static final int MAX_ENTRIES = (int) Settings.getLong("RESOLVE_CACHE_MAX_ENTRIES", 500);
+
+    private record Entry(JsonNode data, long expiresAt) {}
+
+    private static final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private static final SingleFlight<String, JsonNode> resolves = new SingleFlight<>();
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Returns the cached response for the key, or fetches it. Only responses
+     * accepted by usable are cached, so API errors are retried next time.
+     */
+    public static CompletableFuture<JsonNode> resolve(String key, Predicate<JsonNode> usable,
+                                                      Supplier<CompletableFuture<JsonNode>> fetch) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            if (entry.expiresAt() > System.currentTimeMillis()) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(entry.data());
+            }
+            entries.remove(key, entry);
+        }
+
+        misses.incrementAndGet();
+        return resolves.run(key, () -> fetch.get().thenApply(data -> {
+            if (TTL_MILLIS > 0 && MAX_ENTRIES > 0 && usable.test(data)) {
+                put(key, data);
+            }
+            return data;
+        }));
+    }
+
+    /**
+     * Drops a cached response, for example when its media URL stopped working
+     */
+    public static void invalidate(String key) {
+        entries.remove(key);
+    }
+
+    private static void put(String key, JsonNode data) {
+        long now = System.currentTimeMillis();
+        entries.put(key, new Entry(data, now + TTL_MILLIS));
+
+        if (entries.size() <= MAX_ENTRIES) return;
+
+        // Over capacity: drop expired entries, then the ones closest to expiring
+        entries.values().removeIf(e -> e.expiresAt() <= now);
+        while (entries.size() > MAX_ENTRIES) {
+            entries.entrySet().stream()
+                    .min(Comparator.comparingLong(e -> e.getValue().expiresAt()))
+                    .ifPresent(oldest -> entries.remove(oldest.getKey(), oldest.getValue()));
+        }
+    }
+
+    /**
+     * Gets entry count and hit rate for the stats command
+     */
+    public static String getStats() {
+        long hitCount = hits.get();
+        long total = hitCount + misses.get();
+        return String.format("Entries: %d/%d, hits: %d/%d (%.1f%%)",
+                entries.size(), MAX_ENTRIES, hitCount, total, total > 0 ? hitCount * 100.0 / total : 0.0);
+    }
+}
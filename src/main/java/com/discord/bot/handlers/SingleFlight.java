@@ -0,0 +1,45 @@
+package com.discord.bot.handlers;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into one in-flight future.
+ * The first caller starts the work; callers arriving before it finishes
+ * share its result. Finished keys are dropped, so nothing is cached here.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * Joins the in-flight call for the key, or starts one with the task
+     */
+    public CompletableFuture<V> run(K key, Supplier<CompletableFuture<V>> task) {
+        CompletableFuture<V> flight = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            // Copy so one caller cancelling does not affect the others
+            return existing.copy();
+        }
+
+        CompletableFuture<V> result;
+        try {
+            result = task.get();
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+
+        result.whenComplete((value, error) -> {
+            inFlight.remove(key, flight);
+            if (error != null) {
+                flight.completeExceptionally(error);
+            } else {
+                flight.complete(value);
+            }
+        });
+        return flight.copy();
+    }
+}
@@ -0,0 +1,209 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.JDA;
+import com.discord.bot.utils.Settings;
+
+import java.awt.Color;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Flags event listeners, slash commands and JDA callbacks that run longer
+ * than STALL_THRESHOLD_MS. Listener and command runs are wrapped in a
+ * section by either event manager; a sampler thread checks the open sections and captures the
+ * stack of any that overran. JDA's callback pool is probed with a no-op
+ * task on every check, so a callback blocking that pool shows up too.
+ * Stalls are counted for the stats command and reported to the dev log
+ * channel, at most once per cooldown.
+ */
+public class StallWatchdog {
+
+    private static final long THRESHOLD_MILLIS = Settings.getLong("STALL_THRESHOLD_MS", 2000);
+    private static final long CHECK_INTERVAL_MILLIS = Math.max(100, Settings.getLong("STALL_CHECK_INTERVAL_MS", 500));
+    private static final long REPORT_COOLDOWN_MILLIS = TimeUnit.SECONDS.toMillis(
+            Settings.getLong("STALL_REPORT_COOLDOWN_SECONDS", 60));
+    private static final int STACK_DEPTH = 12;
+
+    /**
+     * One running listener or command, closed when it returns
+     */
+    public static final class Section implements AutoCloseable {
+        private final String name;
+        private final Thread thread = Thread.currentThread();
+        private final long startNanos = System.nanoTime();
+        // Set on every section of a thread once a stall on it was counted
+        private volatile boolean flagged;
+        // Set on the innermost section, which carries the stall duration
+        private volatile boolean culprit;
+
+        private Section(String name) {
+            this.name = name;
+        }
+
+        private long elapsedMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        }
+
+        @Override
+        public void close() {
+            active.remove(this);
+            if (culprit) {
+                long millis = elapsedMillis();
+                totalStallMillis.addAndGet(millis);
+                maxStallMillis.accumulateAndGet(millis, Math::max);
+                System.err.println("[STALL] " + name + " finished after " + millis + "ms");
+            }
+        }
+    }
+
+    private static final Set<Section> active = ConcurrentHashMap.newKeySet();
+    private static final Map<String, AtomicLong> stallsByName = new ConcurrentHashMap<>();
+    private static final AtomicLong stalls = new AtomicLong();
+    private static final AtomicLong totalStallMillis = new AtomicLong();
+    private static final AtomicLong maxStallMillis = new AtomicLong();
+    private static final AtomicBoolean started = new AtomicBoolean();
+
+    private static volatile JDA client;
+    private static volatile long lastReportMillis;
+    private static volatile long probeSentNanos;
+    private static volatile boolean probePending;
+    private static volatile boolean probeFlagged;
+
+    /**
+     * Opens a section for a listener or command run; close it in a finally block
+     */
+    public static Section enter(String name) {
+        Section section = new Section(name);
+        if (THRESHOLD_MILLIS > 0) active.add(section);
+        return section;
+    }
+
+    /**
+     * Starts sampling. STALL_THRESHOLD_MS=0 turns the watchdog off.
+     */
+    public static void start(JDA jda) {
+        if (THRESHOLD_MILLIS == 0 || !started.compareAndSet(false, true)) return;
+        client = jda;
+
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "stall-watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sampler.scheduleWithFixedDelay(StallWatchdog::check, CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS,
+                TimeUnit.MILLISECONDS);
+        System.out.println("[STALL] Watching handlers running longer than " + THRESHOLD_MILLIS + "ms");
+    }
+
+    private static void check() {
+        try {
+            checkSections();
+            probeCallbackPool();
+        } catch (Exception e) {
+            System.err.println("[STALL] Check failed: " + e.getMessage());
+        }
+    }
+
+    private static void checkSections() {
+        // Sections nest (a command inside its listener); blame the innermost
+        Map<Thread, Section> innermost = active.stream().collect(Collectors.toMap(
+                section -> section.thread, section -> section,
+                (a, b) -> a.startNanos > b.startNanos ? a : b));
+
+        for (Section section : innermost.values()) {
+            if (section.flagged || section.elapsedMillis() < THRESHOLD_MILLIS) continue;
+
+            active.stream().filter(other -> other.thread == section.thread).forEach(other -> other.flagged = true);
+            section.culprit = true;
+            recordStall(section.name, section.elapsedMillis(), section.thread.getStackTrace());
+        }
+    }
+
+    private static void probeCallbackPool() {
+        JDA jda = client;
+        if (jda == null) return;
+
+        if (probePending) {
+            long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - probeSentNanos);
+            if (waited >= THRESHOLD_MILLIS && !probeFlagged) {
+                probeFlagged = true;
+                recordStall("JDA callback pool", waited, null);
+            }
+            return;
+        }
+
+        probePending = true;
+        probeFlagged = false;
+        probeSentNanos = System.nanoTime();
+        try {
+            jda.getCallbackPool().execute(() -> {
+                if (probeFlagged) {
+                    long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - probeSentNanos);
+                    totalStallMillis.addAndGet(millis);
+                    maxStallMillis.accumulateAndGet(millis, Math::max);
+                    System.err.println("[STALL] JDA callback pool free again after " + millis + "ms");
+                }
+                probePending = false;
+            });
+        } catch (Exception e) {
+            // Pool shut down with JDA
+            probePending = false;
+        }
+    }
+
+    private static void recordStall(String name, long elapsedMillis, StackTraceElement[] stack) {
+        stalls.incrementAndGet();
+        stallsByName.computeIfAbsent(name, key -> new AtomicLong()).incrementAndGet();
+
+        String trace = stack == null || stack.length == 0 ? "(no stack)" : Arrays.stream(stack)
+                .limit(STACK_DEPTH)
+                .map(frame -> "  at " + frame)
+                .collect(Collectors.joining("\n"));
+        System.err.println("[STALL] " + name + " running for " + elapsedMillis + "ms\n" + trace);
+
+        report(name, elapsedMillis, trace);
+    }
+
+    private static void report(String name, long elapsedMillis, String trace) {
+        String devLogChannelId = Settings.get("DEV_LOG_CHANNEL_ID");
+        JDA jda = client;
+        long now = System.currentTimeMillis();
+        if (devLogChannelId == null || jda == null || now - lastReportMillis < REPORT_COOLDOWN_MILLIS) return;
+        lastReportMillis = now;
+
+        LogHandler.LogDetails logDetails = new LogHandler.LogDetails();
+        logDetails.title = "[SYSTEM] Handler Stall";
+        logDetails.description = "**Handler:** " + name + "\n" +
+                "**Running for:** " + elapsedMillis + "ms (threshold " + THRESHOLD_MILLIS + "ms)\n" +
+                "**Stalls so far:** " + stalls.get() + "\n" +
+                "```\n" + (trace.length() > 3500 ? trace.substring(0, 3500) + "\n..." : trace) + "\n```";
+        logDetails.color = new Color(0xFF6600);
+        LogHandler.sendLog(jda, devLogChannelId, logDetails);
+    }
+
+    /**
+     * Gets stall counts and durations for the stats command
+     */
+    public static String getStats() {
+        if (THRESHOLD_MILLIS == 0) return "Disabled";
+        long count = stalls.get();
+        if (count == 0) return "None over " + THRESHOLD_MILLIS + "ms";
+
+        String worst = stallsByName.entrySet().stream()
+                .sorted(Comparator.comparingLong((Map.Entry<String, AtomicLong> entry) -> entry.getValue().get()).reversed())
+                .limit(3)
+                .map(entry -> entry.getKey() + " ×" + entry.getValue().get())
+                .collect(Collectors.joining(", "));
+        return String.format("%d over %dms, total %dms, max %dms\n%s",
+                count, THRESHOLD_MILLIS, totalStallMillis.get(), maxStallMillis.get(), worst);
+    }
+}
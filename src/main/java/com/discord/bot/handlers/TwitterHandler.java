@@ -1,74 +1,144 @@
 package com.discord.bot.handlers;
 
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
-import net.dv8tion.jda.api.utils.FileUpload;
-import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.classic.methods.HttpHead;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.ClassicHttpResponse;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Handler for downloading Twitter/X videos.
  */
 public class TwitterHandler {
 
-    private static final long FILE_SIZE_LIMIT = 100 * 1024 * 1024; // 100MB
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/133.0.0.0 Safari/537.36";
 
     /**
-     * Gets file size from URL via HEAD request
+     * Calls the Twitter downloader API
      */
-    private static long getFileSize(String url) {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            var request = new HttpHead(url);
-            request.setHeader("User-Agent", USER_AGENT);
-
-            try (ClassicHttpResponse response = client.execute(request)) {
-                var contentLengthHeader = response.getFirstHeader("Content-Length");
-                if (contentLengthHeader != null) {
-                    return Long.parseLong(contentLengthHeader.getValue());
-                }
+    private static CompletableFuture<JsonNode> fetchMediaData(String tweetUrl) {
+        String apiUrl = "https://api.ryzendesu.vip/api/downloader/twitter?url=" +
+                URLEncoder.encode(tweetUrl, StandardCharsets.UTF_8);
+
+        var request = SimpleRequestBuilder.get(apiUrl)
+                .setHeader("User-Agent", USER_AGENT)
+                .build();
+
+        return HttpHandler.executeAsync(request).thenApply(response -> {
+            try {
+                return objectMapper.readTree(HttpHandler.bodyAsString(response));
+            } catch (Exception e) {
+                throw new CompletionException(e);
             }
-        } catch (Exception e) {
-            System.err.println("Failed to get file size: " + e.getMessage());
-        }
-        return Long.MAX_VALUE;
+        });
+    }
+
+    /**
+     * Checks whether the API response lists any media
+     */
+    private static boolean hasMedia(JsonNode data) {
+        return data.has("media") && data.get("media").isArray() && !data.get("media").isEmpty();
+    }
+
+    /**
+     * Downloads a tweet's media and delivers it through the reply. Shared by
+     * the prefix command and the /downloader slash command.
+     */
+    public static CompletableFuture<Message> download(String tweetUrl, String caption, String userId,
+                                                      long uploadLimit, MediaReply reply) {
+        String msg = caption + " <@" + userId + ">";
+
+        // Serve repeats of the same tweet from the media cache or our earlier upload
+        MediaCache.Key cacheKey = MediaCache.key("x", tweetUrl);
+        CompletableFuture<Message> delivery = MediaDownloader.deliver(cacheKey, "x.mp4", uploadLimit, reply,
+                meta -> msg, () -> resolveAndSend(tweetUrl, caption, msg, uploadLimit, cacheKey, reply));
+
+        // A failed attempt may mean the resolved media URL expired, so the next one resolves again
+        return delivery.whenComplete((message, error) -> {
+            if (error != null) ResolveCache.invalidate(cacheKey.value());
+        });
     }
 
     /**
-     * Downloads data from URL and returns as bytes
+     * Resolves the tweet through the API and sends the video as an attachment,
+     * or as a link when it is too large
      */
-    private static byte[] downloadData(String url) throws Exception {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            var request = new HttpGet(url);
-            request.setHeader("User-Agent", USER_AGENT);
+    private static CompletableFuture<Message> resolveAndSend(String tweetUrl, String caption, String msg,
+                                                             long uploadLimit, MediaCache.Key cacheKey,
+                                                             MediaReply reply) {
+        reply.status("🔎 Resolving...");
+
+        // Repeat links reuse the cached API response; concurrent ones share one call
+        return ResolveCache.resolve(cacheKey.value(), TwitterHandler::hasMedia, () -> fetchMediaData(tweetUrl)).thenCompose(data -> {
+            // Check if media exists
+            if (!hasMedia(data)) {
+                throw new RuntimeException("No media found");
+            }
 
-            try (ClassicHttpResponse response = client.execute(request)) {
-                return response.getEntity().getContent().readAllBytes();
+            List<String> mediaUrls = new ArrayList<>();
+            for (JsonNode mediaData : data.get("media")) {
+                if (mediaData.has("url") && mediaUrls.size() < Message.MAX_FILE_AMOUNT) {
+                    mediaUrls.add(mediaData.get("url").asText());
+                }
             }
-        }
+
+            if (mediaUrls.isEmpty()) {
+                throw new RuntimeException("Video URL not found");
+            }
+
+            System.out.println("Twitter media data: " + data.get("media").toString());
+
+            // Multi-photo tweets - fetch every item in parallel, send as one message
+            if (mediaUrls.size() > 1) {
+                reply.status("⬇️ Downloading " + mediaUrls.size() + " items...");
+
+                List<MediaDownloader.MediaItem> items = new ArrayList<>();
+                for (int i = 0; i < mediaUrls.size(); i++) {
+                    items.add(new MediaDownloader.MediaItem(mediaUrls.get(i), "x-" + (i + 1) + ".mp4"));
+                }
+
+                return MediaDownloader.uploadAll(items, uploadLimit, (files, skipped) -> {
+                    StringBuilder text = new StringBuilder(msg);
+                    for (String url : skipped) {
+                        text.append("\n[᲼](").append(url.replace("dl=1", "dl=0")).append(")");
+                    }
+                    return reply.send(text.toString(), files);
+                });
+            }
+
+            String videoUrl = mediaUrls.get(0);
+
+            // Send as attachment, relayed straight from the CDN
+            return MediaDownloader.upload(videoUrl, "x.mp4", uploadLimit, cacheKey, reply, msg)
+                    .exceptionallyCompose(error -> {
+                        if (!MediaDownloader.isTooLarge(error)) {
+                            return CompletableFuture.failedFuture(error);
+                        }
+
+                        // File too large, or rejected by Discord (40005) - send URL instead
+                        String modifiedUrl = videoUrl.replace("dl=1", "dl=0");
+                        String finalMessage = caption.isEmpty() ? "᲼" : caption;
+                        return reply.send("[" + finalMessage + "](" + modifiedUrl + ")").submit();
+                    });
+        });
     }
 
     /**
      * Handle Twitter/X download
      */
-    public static void handleX(MessageReceivedEvent event) {
+    public static CompletableFuture<?> handleX(MessageReceivedEvent event) {
         String content = event.getMessage().getContentDisplay();
         String[] args = content.trim().split("\\s+");
 
-        if (args.length == 0 || !args[0].startsWith("f.x")) return;
+        if (args.length == 0 || !args[0].startsWith("f.x")) return CompletableFuture.completedFuture(null);
 
         String command = args[0].replace("f.", "");
 
@@ -77,107 +147,31 @@ public class TwitterHandler {
             if (args.length < 2 || !args[1].matches("^https?://\\S+")) {
                 event.getChannel().sendMessage("Enter a valid Twitter/X Video URL!\nExample: `f.x https://x.com/...`")
                         .queue();
-                return;
+                return CompletableFuture.completedFuture(null);
             }
 
-            CompletableFuture.runAsync(() -> {
-                try {
-                    // Get message content (everything after URL)
-                    StringBuilder messageContent = new StringBuilder();
-                    for (int i = 2; i < args.length; i++) {
-                        if (i > 2) messageContent.append(" ");
-                        messageContent.append(args[i]);
-                    }
+            // Get message content (everything after URL)
+            StringBuilder messageContent = new StringBuilder();
+            for (int i = 2; i < args.length; i++) {
+                if (i > 2) messageContent.append(" ");
+                messageContent.append(args[i]);
+            }
 
-                    String apiUrl = "https://api.ryzendesu.vip/api/downloader/twitter?url=" +
-                            URLEncoder.encode(args[1], StandardCharsets.UTF_8);
-
-                    // Delete original message
-                    event.getMessage().delete().queue(null, throwable -> {});
-
-                    try (CloseableHttpClient client = HttpClients.createDefault()) {
-                        var request = new HttpGet(apiUrl);
-                        request.setHeader("User-Agent", USER_AGENT);
-
-                        try (ClassicHttpResponse response = client.execute(request)) {
-                            String jsonResponse = EntityUtils.toString(response.getEntity());
-                            JsonNode data = objectMapper.readTree(jsonResponse);
-
-                            // Check if media exists
-                            if (!data.has("media") || !data.get("media").isArray() || data.get("media").isEmpty()) {
-                                throw new RuntimeException("No media found");
-                            }
-
-                            JsonNode mediaData = data.get("media").get(0);
-                            String videoUrl = mediaData.has("url") ? mediaData.get("url").asText() : null;
-
-                            if (videoUrl == null) {
-                                throw new RuntimeException("Video URL not found");
-                            }
-
-                            System.out.println("Twitter media data: " + mediaData.toString());
-
-                            long fileSize = getFileSize(videoUrl);
-
-                            if (fileSize > FILE_SIZE_LIMIT) {
-                                // File too large - send URL instead
-                                String modifiedUrl = videoUrl.replace("dl=1", "dl=0");
-                                String finalMessage = messageContent.toString().isEmpty() ? "᲼" : messageContent.toString();
-                                event.getChannel().sendMessage("[" + finalMessage + "](" + modifiedUrl + ")").queue();
-                            } else {
-                                // Send as attachment
-                                byte[] videoBytes = downloadData(videoUrl);
-                                try (InputStream videoStream = new ByteArrayInputStream(videoBytes)) {
-                                    var attachment = FileUpload.fromData(videoStream, "x.mp4");
-                                    String msg = messageContent.toString() + " <@" + event.getAuthor().getId() + ">";
-                                    event.getChannel().sendMessage(msg)
-                                            .addFiles(attachment)
-                                            .setAllowedMentions(Collections.emptyList())
-                                            .queue();
-                                }
-                            }
-                        }
-                    }
-                } catch (Exception e) {
-                    System.err.println("Twitter download error: " + e.getMessage());
-                    e.printStackTrace();
-
-                    // Check for specific error codes
-                    if (e.getMessage() != null && e.getMessage().contains("40005")) {
-                        // Entity request too large - send URL instead
-                        try {
-                            String apiUrl = "https://api.ryzendesu.vip/api/downloader/twitter?url=" +
-                                    URLEncoder.encode(args[1], StandardCharsets.UTF_8);
-
-                            try (CloseableHttpClient client = HttpClients.createDefault()) {
-                                var request = new HttpGet(apiUrl);
-                                request.setHeader("User-Agent", USER_AGENT);
-
-                                try (ClassicHttpResponse response = client.execute(request)) {
-                                    String jsonResponse = EntityUtils.toString(response.getEntity());
-                                    JsonNode data = objectMapper.readTree(jsonResponse);
-                                    JsonNode mediaData = data.get("media").get(0);
-                                    String videoUrl = mediaData.get("url").asText();
-                                    String modifiedUrl = videoUrl.replace("dl=1", "dl=0");
-
-                                    StringBuilder messageContent = new StringBuilder();
-                                    for (int i = 2; i < args.length; i++) {
-                                        if (i > 2) messageContent.append(" ");
-                                        messageContent.append(args[i]);
-                                    }
-
-                                    String finalMessage = messageContent.toString().isEmpty() ? "_" : messageContent.toString();
-                                    event.getChannel().sendMessage("[" + finalMessage + "](" + modifiedUrl + ")").queue();
-                                }
-                            }
-                        } catch (Exception fallbackError) {
-                            event.getChannel().sendMessage("Failed to download the video").queue();
-                        }
-                    } else {
-                        event.getChannel().sendMessage("Failed to download the video").queue();
-                    }
-                }
-            });
+            // Delete original message
+            event.getMessage().delete().queue(null, throwable -> {});
+
+            // Known before anything is fetched, so oversized media is never downloaded
+            long uploadLimit = MediaDownloader.getUploadLimit(event.isFromGuild() ? event.getGuild() : null);
+
+            return download(args[1], messageContent.toString(), event.getAuthor().getId(), uploadLimit,
+                    MediaReply.toChannel(event.getChannel()))
+                    .exceptionallyCompose(error -> {
+                        Throwable e = HttpHandler.rootCause(error);
+                        System.err.println("Twitter download error: " + e.getMessage());
+                        e.printStackTrace();
+                        return event.getChannel().sendMessage("Failed to download the video").submit();
+                    });
         }
+        return CompletableFuture.completedFuture(null);
     }
 }
@@ -0,0 +1,68 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.message.GenericMessageEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import net.dv8tion.jda.api.hooks.IEventManager;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Event manager that hands every event to its own virtual thread, so a
+ * listener that blocks (attachment reading) never holds up the gateway
+ * thread and the events behind it. Message events stay ordered per
+ * channel: each one starts after the previous event of its channel has
+ * been handled. Other events run as soon as they arrive. Listeners hand
+ * work that takes long, such as AI session replies, to their own queue,
+ * so commands later in the channel aren't held up behind it.
+ */
+public class VirtualThreadEventManager implements IEventManager {
+
+    private final List<EventListener> listeners = new CopyOnWriteArrayList<>();
+    private final OrderedExecutor executor = new OrderedExecutor("event-");
+
+    @Override
+    public void register(Object listener) {
+        if (!(listener instanceof EventListener eventListener)) {
+            throw new IllegalArgumentException("Listener must implement EventListener");
+        }
+        listeners.add(eventListener);
+    }
+
+    @Override
+    public void unregister(Object listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public List<Object> getRegisteredListeners() {
+        return List.copyOf(listeners);
+    }
+
+    @Override
+    public void handle(GenericEvent event) {
+        if (!(event instanceof GenericMessageEvent messageEvent)) {
+            executor.execute(() -> dispatch(event));
+            return;
+        }
+
+        executor.execute(messageEvent.getChannel().getIdLong(), () -> dispatch(event));
+    }
+
+    private void dispatch(GenericEvent event) {
+        for (EventListener listener : listeners) {
+            StallWatchdog.Section section = StallWatchdog.enter(listener.getClass().getSimpleName() + " "
+                    + event.getClass().getSimpleName());
+            try {
+                listener.onEvent(event);
+            } catch (Throwable error) {
+                System.err.println("[EVENTS] " + listener.getClass().getSimpleName() + " failed on "
+                        + event.getClass().getSimpleName() + ": " + error.getMessage());
+                error.printStackTrace();
+            } finally {
+                section.close();
+            }
+        }
+    }
+}
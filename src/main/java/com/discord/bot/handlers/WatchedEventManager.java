@@ -0,0 +1,30 @@
+package com.discord.bot.handlers;
+
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.hooks.EventListener;
+import net.dv8tion.jda.api.hooks.InterfacedEventManager;
+
+/**
+ * JDA's default event manager, running listeners on the gateway thread,
+ * with each listener wrapped in a stall watchdog section. Used when
+ * EVENT_VIRTUAL_THREADS is off, so slow listeners are still reported.
+ */
+public class WatchedEventManager extends InterfacedEventManager {
+
+    @Override
+    public void handle(GenericEvent event) {
+        for (Object listener : getRegisteredListeners()) {
+            StallWatchdog.Section section = StallWatchdog.enter(listener.getClass().getSimpleName() + " "
+                    + event.getClass().getSimpleName());
+            try {
+                ((EventListener) listener).onEvent(event);
+            } catch (Throwable error) {
+                System.err.println("[EVENTS] " + listener.getClass().getSimpleName() + " failed on "
+                        + event.getClass().getSimpleName() + ": " + error.getMessage());
+                error.printStackTrace();
+            } finally {
+                section.close();
+            }
+        }
+    }
+}
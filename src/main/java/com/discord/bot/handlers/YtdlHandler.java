@@ -1,75 +1,240 @@
 package com.discord.bot.handlers;
 
+import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
-import net.dv8tion.jda.api.utils.FileUpload;
-import org.apache.hc.client5.http.classic.methods.HttpGet;
-import org.apache.hc.client5.http.classic.methods.HttpHead;
-import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
-import org.apache.hc.client5.http.impl.classic.HttpClients;
-import org.apache.hc.core5.http.ClassicHttpResponse;
-import org.apache.hc.core5.http.io.entity.EntityUtils;
+import org.apache.hc.client5.http.async.methods.SimpleRequestBuilder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.discord.bot.utils.Settings;
 
-import java.io.ByteArrayInputStream;
-import java.io.InputStream;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Collections;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * Handler for downloading YouTube videos.
  */
 public class YtdlHandler {
 
-    // 100MB limit
-    private static final long FILE_SIZE_LIMIT = 100 * 1024 * 1024;
     private static final ObjectMapper objectMapper = new ObjectMapper();
     private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/133.0.0.0 Safari/537.36";
 
+    // Qualities to try, best first, format: 720,480,360
+    private static final List<String> QUALITY_LADDER = parseQualities(Settings.get("YT_QUALITY_LADDER"));
+
+    private record Candidate(String quality, JsonNode data, String videoUrl, long size) {}
+
+    private static List<String> parseQualities(String value) {
+        List<String> qualities = value == null ? List.of() : Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(q -> q.matches("\\d+"))
+                .toList();
+        return qualities.isEmpty() ? List.of("720", "480", "360") : qualities;
+    }
+
     /**
-     * Gets file size from URL via HEAD request
+     * Starts fetching the thumbnail as soon as the video details arrive, so
+     * it is ready if a link has to be sent. Completes with null when there is
+     * no thumbnail or it can't be fetched.
      */
-    private static long getFileSize(String url) {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            var request = new HttpHead(url);
-            request.setHeader("User-Agent", USER_AGENT);
-
-            try (ClassicHttpResponse response = client.execute(request)) {
-                var contentLengthHeader = response.getFirstHeader("Content-Length");
-                if (contentLengthHeader != null) {
-                    return Long.parseLong(contentLengthHeader.getValue());
-                }
-            }
-        } catch (Exception e) {
-            System.err.println("Failed to get file size: " + e.getMessage());
-        }
-        return Long.MAX_VALUE;
+    private static CompletableFuture<MediaSpool.SpooledMedia> prefetchThumbnail(CompletableFuture<JsonNode> metadata,
+                                                                                long uploadLimit) {
+        return metadata.thenCompose(data -> {
+                    String thumbnail = data != null && data.has("thumbnail") ? data.get("thumbnail").asText() : null;
+                    if (thumbnail == null || thumbnail.isEmpty()) {
+                        return CompletableFuture.<MediaSpool.SpooledMedia>completedFuture(null);
+                    }
+                    return MediaDownloader.open(thumbnail).thenCompose(media -> MediaSpool.spool(media, uploadLimit));
+                })
+                .exceptionally(error -> {
+                    System.err.println("YouTube thumbnail fetch failed: " + HttpHandler.rootCause(error).getMessage());
+                    return null;
+                });
     }
 
     /**
-     * Downloads data from URL and returns as bytes
+     * Releases a prefetched thumbnail once it is no longer needed
      */
-    private static byte[] downloadData(String url) throws Exception {
-        try (CloseableHttpClient client = HttpClients.createDefault()) {
-            var request = new HttpGet(url);
-            request.setHeader("User-Agent", USER_AGENT);
-
-            try (ClassicHttpResponse response = client.execute(request)) {
-                return response.getEntity().getContent().readAllBytes();
-            }
-        }
+    private static void releaseThumbnail(CompletableFuture<MediaSpool.SpooledMedia> thumbnail) {
+        thumbnail.thenAccept(spooled -> {
+            if (spooled != null) spooled.close();
+        });
+    }
+
+    /**
+     * Sends the download link, with the prefetched thumbnail attached when it was fetched
+     */
+    private static CompletableFuture<Message> sendLink(MediaReply reply, String text, String videoUrl,
+                                                       CompletableFuture<MediaSpool.SpooledMedia> thumbnail) {
+        String linkText = text + "\n\n[Download Video](" + videoUrl + ")";
+
+        return thumbnail.thenCompose(spooled -> spooled == null
+                        ? reply.send(linkText).submit()
+                        : reply.send(linkText, List.of(spooled.toFileUpload("thumbnail.jpg"))).submit())
+                .exceptionallyCompose(thumbError ->
+                        // Fallback without thumbnail
+                        reply.send(linkText).submit());
+    }
+
+    /**
+     * Resolves one quality through the API. Repeat requests for the same video
+     * and quality reuse the cached response; concurrent ones share one call.
+     */
+    private static CompletableFuture<JsonNode> resolve(String ytUrl, String quality, MediaCache.Key cacheKey) {
+        String apiUrl = "https://api.ryzendesu.vip/api/downloader/ytmp4?url=" +
+                URLEncoder.encode(ytUrl, StandardCharsets.UTF_8) + "&quality=" + quality;
+
+        var request = SimpleRequestBuilder.get(apiUrl)
+                .setHeader("User-Agent", USER_AGENT)
+                .build();
+
+        return ResolveCache.resolve(resolveKey(cacheKey, quality), data -> data.has("url"),
+                () -> HttpHandler.executeAsync(request).thenApply(response -> {
+                    try {
+                        return objectMapper.readTree(HttpHandler.bodyAsString(response));
+                    } catch (Exception e) {
+                        throw new CompletionException(e);
+                    }
+                }));
+    }
+
+    private static String resolveKey(MediaCache.Key cacheKey, String quality) {
+        return cacheKey.value() + "@" + quality;
+    }
+
+    /**
+     * Resolves one rung of the quality ladder and probes its size. The first
+     * resolved details are handed to metadata. Completes with null when that
+     * quality isn't available.
+     */
+    private static CompletableFuture<Candidate> probe(String ytUrl, String quality, MediaCache.Key cacheKey,
+                                                      CompletableFuture<JsonNode> metadata) {
+        return resolve(ytUrl, quality, cacheKey)
+                .thenCompose(data -> {
+                    String videoUrl = data.has("url") ? data.get("url").asText() : null;
+                    if (videoUrl == null) return CompletableFuture.<Candidate>completedFuture(null);
+
+                    metadata.complete(data);
+
+                    return MediaDownloader.probeSize(videoUrl)
+                            .thenApply(size -> new Candidate(quality, data, videoUrl, size));
+                })
+                .exceptionally(error -> {
+                    System.err.println("YouTube " + quality + "p probe failed: " + HttpHandler.rootCause(error).getMessage());
+                    return null;
+                });
+    }
+
+    /**
+     * Picks the highest quality known to fit the upload limit, then one of
+     * unknown size (which is cut off at the limit if it doesn't fit).
+     * Returns null when every quality is too large.
+     */
+    private static Candidate choose(List<Candidate> candidates, long uploadLimit) {
+        return candidates.stream()
+                .filter(c -> c.size() >= 0 && c.size() <= uploadLimit)
+                .findFirst()
+                .or(() -> candidates.stream().filter(c -> c.size() < 0).findFirst())
+                .orElse(null);
+    }
+
+    /**
+     * Resolves and probes every quality in parallel and sends the best one
+     * that fits as an attachment, or a download link when none does. The
+     * thumbnail for the link is fetched alongside the size probes and
+     * dropped if the video gets attached.
+     */
+    private static CompletableFuture<Message> resolveAndSend(String ytUrl, String header, long uploadLimit,
+                                                             MediaCache.Key cacheKey, MediaReply reply) {
+        reply.status("🔎 Resolving...");
+
+        CompletableFuture<JsonNode> metadata = new CompletableFuture<>();
+        CompletableFuture<MediaSpool.SpooledMedia> thumbnail = prefetchThumbnail(metadata, uploadLimit);
+
+        List<CompletableFuture<Candidate>> probes = QUALITY_LADDER.stream()
+                .map(quality -> probe(ytUrl, quality, cacheKey, metadata))
+                .toList();
+
+        return CompletableFuture.allOf(probes.toArray(new CompletableFuture<?>[0]))
+                .thenCompose(ignored -> {
+                    // Only takes effect when no quality resolved, so the thumbnail wait ends
+                    metadata.complete(null);
+
+                    List<Candidate> candidates = probes.stream()
+                            .map(CompletableFuture::join)
+                            .filter(Objects::nonNull)
+                            .toList();
+
+                    if (candidates.isEmpty()) {
+                        throw new RuntimeException("Video URL not found in API response");
+                    }
+
+                    // Extract video info
+                    JsonNode data = candidates.get(0).data();
+                    String title = data.has("title") ? data.get("title").asText() : "-";
+                    String author = data.has("author") ? data.get("author").asText() : "-";
+                    String description = data.has("description") ? data.get("description").asText() : "-";
+
+                    // Video details are cached with the file so a hit needs no API call
+                    String info = String.format("""
+                            **YouTube**
+                            **Title:** %s
+                            **Author:** %s
+                            **Description:** %s""",
+                            title, author, description);
+                    String text = header + info;
+
+                    // Links point at the smallest quality when nothing can be attached
+                    String linkUrl = candidates.get(candidates.size() - 1).videoUrl();
+                    Candidate chosen = choose(candidates, uploadLimit);
+                    if (chosen == null) {
+                        return sendLink(reply, text, linkUrl, thumbnail);
+                    }
+
+                    // Relay the video straight into the attachment upload
+                    return MediaDownloader.upload(chosen.videoUrl(), "youtube.mp4", uploadLimit,
+                                    cacheKey.withMeta(info), reply, text)
+                            .exceptionallyCompose(error -> MediaDownloader.isTooLarge(error)
+                                    // File too large - send download link + thumbnail
+                                    ? sendLink(reply, text, linkUrl, thumbnail)
+                                    : CompletableFuture.failedFuture(error));
+                })
+                .whenComplete((message, error) -> releaseThumbnail(thumbnail));
+    }
+
+    /**
+     * Downloads a YouTube video and delivers it through the reply. Shared by
+     * the prefix command and the /downloader slash command.
+     */
+    public static CompletableFuture<Message> download(String ytUrl, String userId, long uploadLimit,
+                                                      MediaReply reply) {
+        String header = "**from :** <@" + userId + ">\n\n";
+
+        // Serve repeats of the same video from the media cache or our earlier upload;
+        // both need the video details stored with them
+        MediaCache.Key cacheKey = MediaCache.key("yt", ytUrl);
+        CompletableFuture<Message> delivery = MediaDownloader.deliver(cacheKey, "youtube.mp4", uploadLimit, reply,
+                meta -> meta != null ? header + meta : null,
+                () -> resolveAndSend(ytUrl, header, uploadLimit, cacheKey, reply));
+
+        // A failed attempt may mean the resolved video URLs expired, so the next one resolves again
+        return delivery.whenComplete((message, error) -> {
+            if (error != null) QUALITY_LADDER.forEach(quality -> ResolveCache.invalidate(resolveKey(cacheKey, quality)));
+        });
     }
 
     /**
      * Handle YouTube download
      */
-    public static void handleYtDownload(MessageReceivedEvent event) {
+    public static CompletableFuture<?> handleYtDownload(MessageReceivedEvent event) {
         String prefix = "f.yt";
         String content = event.getMessage().getContentDisplay();
 
-        if (!content.startsWith(prefix)) return;
+        if (!content.startsWith(prefix)) return CompletableFuture.completedFuture(null);
 
         String[] args = content.substring(prefix.length()).trim().split("\\s+");
 
@@ -77,92 +242,22 @@ public class YtdlHandler {
         if (args.length == 0 || args[0].isEmpty() || !args[0].matches("https?://\\S+")) {
             event.getChannel().sendMessage("Enter a valid YouTube URL!\nExample: `f.yt https://youtube.com/...`")
                     .queue();
-            return;
+            return CompletableFuture.completedFuture(null);
         }
 
-        CompletableFuture.runAsync(() -> {
-            try {
-                // Delete original message
-                event.getMessage().delete().queue(null, throwable -> {});
-
-                String ytUrl = args[0];
-                String apiUrl = "https://api.ryzendesu.vip/api/downloader/ytmp4?url=" +
-                        URLEncoder.encode(ytUrl, StandardCharsets.UTF_8) + "&quality=480";
-
-                try (CloseableHttpClient client = HttpClients.createDefault()) {
-                    var request = new HttpGet(apiUrl);
-                    request.setHeader("User-Agent", USER_AGENT);
-
-                    try (ClassicHttpResponse response = client.execute(request)) {
-                        String jsonResponse = EntityUtils.toString(response.getEntity());
-                        JsonNode data = objectMapper.readTree(jsonResponse);
-
-                        // Extract video info
-                        String title = data.has("title") ? data.get("title").asText() : "-";
-                        String author = data.has("author") ? data.get("author").asText() : "-";
-                        String description = data.has("description") ? data.get("description").asText() : "-";
-                        String videoUrl = data.has("url") ? data.get("url").asText() : null;
-                        String thumbnail = data.has("thumbnail") ? data.get("thumbnail").asText() : null;
-
-                        if (videoUrl == null) {
-                            throw new RuntimeException("Video URL not found in API response");
-                        }
-
-                        // Build message text
-                        String text = String.format("""
-                                **from :** <@%s>
-
-                                **YouTube**
-                                **Title:** %s
-                                **Author:** %s
-                                **Description:** %s""",
-                                event.getAuthor().getId(), title, author, description);
-
-                        // Check file size and decide how to send
-                        long fileSize = getFileSize(videoUrl);
-                        boolean canSendAttachment = fileSize <= FILE_SIZE_LIMIT;
-
-                        if (!canSendAttachment) {
-                            // File too large or unknown size - send download link + thumbnail
-                            if (thumbnail != null && !thumbnail.isEmpty()) {
-                                try {
-                                    byte[] thumbBytes = downloadData(thumbnail);
-                                    try (InputStream thumbStream = new ByteArrayInputStream(thumbBytes)) {
-                                        var thumbAttachment = FileUpload.fromData(thumbStream, "thumbnail.jpg");
-                                        event.getChannel().sendMessage(text + "\n\n[Download Video](" + videoUrl + ")")
-                                                .addFiles(thumbAttachment)
-                                                .setAllowedMentions(Collections.emptyList())
-                                                .queue();
-                                    }
-                                } catch (Exception thumbError) {
-                                    // Fallback without thumbnail
-                                    event.getChannel().sendMessage(text + "\n\n[Download Video](" + videoUrl + ")")
-                                            .setAllowedMentions(Collections.emptyList())
-                                            .queue();
-                                }
-                            } else {
-                                event.getChannel().sendMessage(text + "\n\n[Download Video](" + videoUrl + ")")
-                                        .setAllowedMentions(Collections.emptyList())
-                                        .queue();
-                            }
-                        } else {
-                            // Download and send video as attachment
-                            byte[] videoBytes = downloadData(videoUrl);
-                            try (InputStream videoStream = new ByteArrayInputStream(videoBytes)) {
-                                var videoAttachment = FileUpload.fromData(videoStream, "youtube.mp4");
-                                event.getChannel().sendMessage(text)
-                                        .addFiles(videoAttachment)
-                                        .setAllowedMentions(Collections.emptyList())
-                                        .queue();
-                            }
-                        }
-                    }
-                }
-            } catch (Exception e) {
-                System.err.println("YouTube download error: " + e.getMessage());
-                e.printStackTrace();
-                event.getChannel().sendMessage("An error occurred: " + e.getMessage()).queue();
-            }
-        });
+        // Delete original message
+        event.getMessage().delete().queue(null, throwable -> {});
+
+        // Known before anything is fetched, so oversized media is never downloaded
+        long uploadLimit = MediaDownloader.getUploadLimit(event.isFromGuild() ? event.getGuild() : null);
+
+        return download(args[0], event.getAuthor().getId(), uploadLimit, MediaReply.toChannel(event.getChannel()))
+                .exceptionally(error -> {
+                    Throwable e = HttpHandler.rootCause(error);
+                    System.err.println("YouTube download error: " + e.getMessage());
+                    e.printStackTrace();
+                    event.getChannel().sendMessage("An error occurred: " + e.getMessage()).queue();
+                    return null;
+                });
     }
 }
@@ -4,6 +4,7 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.interactions.commands.Command;
 import io.github.cdimascio.dotenv.Dotenv;
+import com.discord.bot.handlers.CommandLoader;
 
 import java.util.List;
 
@@ -39,6 +40,9 @@ public class DeleteCommands {
             // Wait a bit for all deletions to complete
             Thread.sleep(2000);
 
+            // The next start must push the commands again, even if they didn't change
+            CommandLoader.invalidate(jda.getSelfUser().getApplicationId());
+
             System.out.println("Semua Slash Command berhasil dihapus.");
             jda.shutdown();
 
@@ -0,0 +1,100 @@
+package com.discord.bot.utils;
+
+import net.dv8tion.jda.api.utils.FileUpload;
+import com.discord.bot.handlers.HttpHandler;
+import com.discord.bot.handlers.MediaDownloader;
+import com.sun.net.httpserver.HttpServer;
+import okhttp3.MediaType;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks that a streamed media upload keeps heap use flat. A generated file
+ * is served from a local HTTP server, opened with MediaDownloader and written
+ * through the upload body JDA would send, into a sink that drops it, while
+ * heap use is sampled. Run it with a heap smaller than the file:
+ * <pre>
+ * mvn exec:java -Dexec.mainClass="com.discord.bot.utils.MediaHeapCheck" -Dexec.args="256" -Dexec.jvmArgs="-Xmx64m"
+ * </pre>
+ */
+public class MediaHeapCheck {
+
+    private static final long MB = 1024 * 1024;
+    // The relay buffer and okio segments need a few MB; a buffered upload needs the whole file
+    private static final long ALLOWED_GROWTH = 32 * MB;
+
+    public static void main(String[] args) throws Exception {
+        long size = (args.length > 0 ? Long.parseLong(args[0]) : 256) * MB;
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/media.bin", exchange -> {
+            exchange.sendResponseHeaders(200, size);
+            try (OutputStream out = exchange.getResponseBody()) {
+                byte[] chunk = new byte[64 * 1024];
+                for (long sent = 0; sent < size; sent += chunk.length) {
+                    out.write(chunk, 0, (int) Math.min(chunk.length, size - sent));
+                }
+            }
+        });
+        server.start();
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long baseline = runtime.totalMemory() - runtime.freeMemory();
+        AtomicLong peak = new AtomicLong(baseline);
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                peak.accumulateAndGet(runtime.totalMemory() - runtime.freeMemory(), Math::max);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "heap-sampler");
+        sampler.setDaemon(true);
+        sampler.start();
+
+        AtomicLong written = new AtomicLong();
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort() + "/media.bin";
+            MediaDownloader.MediaStream media = MediaDownloader.open(url).join();
+            FileUpload upload = media.toFileUpload("media.bin");
+
+            try (BufferedSink sink = Okio.buffer(new ForwardingSink(Okio.blackhole()) {
+                @Override
+                public void write(Buffer source, long byteCount) throws IOException {
+                    written.addAndGet(byteCount);
+                    super.write(source, byteCount);
+                }
+            })) {
+                upload.getRequestBody(MediaType.parse("application/octet-stream")).writeTo(sink);
+            }
+        } finally {
+            sampler.interrupt();
+            server.stop(0);
+            HttpHandler.shutdown();
+        }
+
+        long growth = peak.get() - baseline;
+        System.out.printf("Streamed %d MB, heap baseline %d MB, peak %d MB (+%d MB)%n",
+                written.get() / MB, baseline / MB, peak.get() / MB, growth / MB);
+
+        if (written.get() != size) {
+            System.out.println("❌ Upload body was " + written.get() + " bytes, expected " + size);
+            System.exit(1);
+        }
+        if (growth > ALLOWED_GROWTH) {
+            System.out.println("❌ Heap grew by more than " + ALLOWED_GROWTH / MB + " MB");
+            System.exit(1);
+        }
+        System.out.println("✅ Heap stayed flat while streaming");
+    }
+}
@@ -4,9 +4,8 @@ import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.interactions.commands.build.CommandData;
 import io.github.cdimascio.dotenv.Dotenv;
-import com.discord.bot.commands.*;
+import com.discord.bot.handlers.CommandRegistry;
 
-import java.util.ArrayList;
 import java.util.List;
 
 public class RegisterCommands {
@@ -18,34 +17,7 @@ public class RegisterCommands {
         try {
             System.out.println("Loading commands...");
 
-            List<CommandData> commands = new ArrayList<>();
-
-            // Register all commands
-            commands.add(Ping.getCommandData());
-            commands.add(Help.getCommandData());
-            commands.add(Info.getCommandData());
-            commands.add(Avatar.getCommandData());
-            commands.add(Banner.getCommandData());
-            commands.add(Userinfo.getCommandData());
-            commands.add(Serverinfo.getCommandData());
-            commands.add(Ban.getCommandData());
-            commands.add(Kick.getCommandData());
-            commands.add(Clean.getCommandData());
-            commands.add(Adzan.getCommandData());
-            commands.add(Aichat.getCommandData());
-            commands.add(Endchat.getCommandData());
-            commands.add(Downloader.getCommandData());
-            commands.add(ListRoles.getCommandData());
-            commands.add(Mute.getCommandData());
-            commands.add(Unmute.getCommandData());
-            commands.add(Say.getCommandData());
-            commands.add(Timeout.getCommandData());
-            commands.add(Untimeout.getCommandData());
-            commands.add(Unban.getCommandData());
-            commands.add(Retstart.getCommandData());
-            commands.add(Setstatus.getCommandData());
-            commands.add(Serverstats.getCommandData());
-            commands.add(Toggleembed.getCommandData());
+            List<CommandData> commands = CommandRegistry.getCommandData();
 
             // Print command names
             commands.forEach(cmd -> System.out.println(cmd.getName()));
@@ -0,0 +1,58 @@
+package com.discord.bot.utils;
+
+import io.github.cdimascio.dotenv.Dotenv;
+
+/**
+ * Reads tuning settings from the .env file. Blank settings use the default;
+ * settings that don't parse are reported and use the default too. Numbers
+ * are clamped to a minimum, so a negative size or count never gets through.
+ */
+public class Settings {
+
+    private static final Dotenv dotenv = Dotenv.configure().load();
+
+    /**
+     * Gets a trimmed setting, or null when it is missing or blank
+     */
+    public static String get(String key) {
+        String value = dotenv.get(key);
+        return value == null || value.isBlank() ? null : value.trim();
+    }
+
+    public static String get(String key, String defaultValue) {
+        String value = get(key);
+        return value != null ? value : defaultValue;
+    }
+
+    public static long getLong(String key, long defaultValue) {
+        return getLong(key, defaultValue, 0);
+    }
+
+    public static long getLong(String key, long defaultValue, long min) {
+        String value = get(key);
+        if (value == null) return defaultValue;
+        try {
+            return Math.max(min, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            System.err.println("[SETTINGS] Invalid " + key + " value: " + value + ", using " + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    public static int getInt(String key, int defaultValue, int min) {
+        return (int) Math.min(Integer.MAX_VALUE, getLong(key, defaultValue, min));
+    }
+
+    /**
+     * Gets a true/false setting; anything other than "true" or "false" uses the default
+     */
+    public static boolean getBoolean(String key, boolean defaultValue) {
+        String value = get(key);
+        if ("true".equalsIgnoreCase(value)) return true;
+        if ("false".equalsIgnoreCase(value)) return false;
+        if (value != null) {
+            System.err.println("[SETTINGS] Invalid " + key + " value: " + value + ", using " + defaultValue);
+        }
+        return defaultValue;
+    }
+}